@@ -1,71 +1,247 @@
 package com.lingea.documentstorage;
 
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.time.Clock;
 import java.util.LinkedList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import com.lingea.documentstorage.database.AbstractRecord;
+import com.lingea.documentstorage.database.BloomFilter;
+import com.lingea.documentstorage.database.ChunkRecord;
 import com.lingea.documentstorage.database.DocumentOfParagraph;
 import com.lingea.documentstorage.database.DocumentRecord;
+import com.lingea.documentstorage.database.HashIdCache;
 import com.lingea.documentstorage.database.OccurrenceRecord;
 import com.lingea.documentstorage.database.ParagraphOfSentence;
 import com.lingea.documentstorage.database.ParagraphRecord;
 import com.lingea.documentstorage.database.SentenceOccurrence;
 import com.lingea.documentstorage.database.SentenceRecord;
+import com.lingea.documentstorage.database.StatementCache;
+import com.lingea.documentstorage.database.TimelinePage;
 import com.lingea.documentstorage.database.Url;
+import com.lingea.documentstorage.database.UrlDictionary;
 import com.lingea.documentstorage.exception.RecordAlreadyExistsException;
 import com.lingea.documentstorage.exception.RecordNotFoundException;
+import com.lingea.documentstorage.io.Codec;
+import com.lingea.documentstorage.io.CodecPolicy;
+import com.lingea.documentstorage.io.ContentChunker;
+import com.lingea.documentstorage.io.IndexEntry;
+import com.lingea.documentstorage.io.MetaFilter;
+import com.lingea.documentstorage.io.MetaRecord;
 import com.lingea.documentstorage.io.Storage;
+import com.lingea.documentstorage.recording.DigestArray;
+import com.lingea.documentstorage.recording.Hasher;
 import com.lingea.documentstorage.recording.RecordChecksum;
 import com.lingea.documentstorage.utils.DBInitializator;
 import com.lingea.documentstorage.utils.DocumentMapper;
 import com.lingea.documentstorage.utils.MapLevel;
+import com.lingea.documentstorage.utils.StorageConfig;
 import com.lingea.documentstorage.utils.StorageLevel;
 
 /**
  * Class for manipulating the document storage.
  */
-public class DocumentStorage {
+public class DocumentStorage implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(DocumentStorage.class.getName());
+    private static final int STAGING_BUFFER_SIZE = 64 * 1024;
+    private static final int DICTIONARY_SIZE = 16 * 1024;
 
+    /** Writes the binary of a newly created document into the storage. */
+    private interface BinaryWriter {
+        void write(int documentId, Connection conn) throws SQLException, IOException;
+    }
+
+    private final String dirPath;
     private DBInitializator dbInitializator;
 
+    /** Borrows a pooled connection for modifications, closing the connection returns it to the pool. */
     public Connection getConnection() throws SQLException, IOException {
         return dbInitializator.getConnection();
     }
 
+    /** Borrows a pooled read-only connection for lookups, closing the connection returns it to the pool. */
+    public Connection getReadConnection() throws SQLException, IOException {
+        return dbInitializator.getReadConnection();
+    }
+
+    private final StorageConfig config;
+    private DocumentWriter writer;
+    private final Storage chunkStorage;
+    private final ContentChunker chunker = new ContentChunker();
+    private volatile boolean chunking;
+    private final Map<StorageLevel, HashIdCache> hashCaches = new EnumMap<>(StorageLevel.class);
+    private final Map<StorageLevel, BloomFilter> hashFilters = new EnumMap<>(StorageLevel.class);
+    private UrlDictionary urlDictionary;
+
     // TODO: use same document storage for everything, then we don't have to use Paragraphs, nor Document, 
     // since we can always retrieve them by sentences
     private Map<StorageLevel, Storage> storageLevelMap = new HashMap<>(3);
 
     public DocumentStorage(String dirPath) throws SQLException, IOException {
+        this(dirPath, StorageConfig.defaults());
+    }
+
+    /**
+     * Creates the document storage whose data files roll over to a new segment
+     * once they reach the given size.
+     * @param dirPath directory of the document storage
+     * @param maxSegmentSize maximal byte size of a single data file segment
+     */
+    public DocumentStorage(String dirPath, long maxSegmentSize) throws SQLException, IOException {
+        this(dirPath, StorageConfig.defaults().withMaxSegmentSize(maxSegmentSize));
+    }
+
+    /**
+     * Creates the document storage with the configuration, e.g. {@code StorageConfig.bulkIngest()}
+     * for loading a large amount of documents or {@code StorageConfig.serving()} for lookups.
+     * @param dirPath directory of the document storage
+     * @param config settings of the database connections and the data files
+     */
+    public DocumentStorage(String dirPath, StorageConfig config) throws SQLException, IOException {
+        this.dirPath = dirPath;
+        this.config = config;
+        long maxSegmentSize = config.getMaxSegmentSize();
+        this.chunking = config.isChunking();
 
         Files.createDirectories(Paths.get(dirPath));
+        // the database checks the configuration, e.g. the checksum algorithms, before any data file is opened
+        dbInitializator = new DBInitializator(dirPath, config);
 
         storageLevelMap.put(StorageLevel.DOCUMENT, new Storage(
             dirPath + "documentStorage.data",
             dirPath + "documentStorage.idx", 
-            dirPath + "documentStorage.meta"));
+            dirPath + "documentStorage.meta",
+            maxSegmentSize));
 
         storageLevelMap.put(StorageLevel.PARAGRAPH, new Storage(
             dirPath + "paragraphStorage.data", 
             dirPath + "paragraphStorage.idx", 
-            dirPath + "paragraphStorage.meta"));
+            dirPath + "paragraphStorage.meta",
+            maxSegmentSize));
 
         storageLevelMap.put(StorageLevel.SENTENCE, new Storage(
             dirPath + "sentenceStorage.data", 
             dirPath + "sentenceStorage.idx", 
-            dirPath + "sentenceStorage.meta"));
+            dirPath + "sentenceStorage.meta",
+            maxSegmentSize));
+
+        chunkStorage = new Storage(
+            dirPath + "chunkStorage.data",
+            dirPath + "chunkStorage.idx",
+            dirPath + "chunkStorage.meta",
+            maxSegmentSize);
+        storageLevelMap.get(StorageLevel.DOCUMENT).setChunkStorage(chunkStorage);
+
+        // records are stored as they are unless compression is turned on by the configuration
+        for (StorageLevel level : storageLevelMap.keySet()) {
+            setCodecPolicy(level, config.getCodecPolicy(level));
+        }
+
+        hashCaches.put(StorageLevel.PARAGRAPH, new HashIdCache(config.getHashCacheBytes()));
+        hashCaches.put(StorageLevel.SENTENCE, new HashIdCache(config.getHashCacheBytes()));
+
+        if (config.getHashFilterCapacity() > 0) {
+            loadHashFilter(StorageLevel.PARAGRAPH);
+            loadHashFilter(StorageLevel.SENTENCE);
+        }
+        try (Connection conn = dbInitializator.getReadConnection()) {
+            urlDictionary = UrlDictionary.open(dirPath + "urlDictionary.dat", conn);
+        }
+    }
 
-        dbInitializator = new DBInitializator(dirPath);
+    /**
+     * Loads the snapshot of the hash filter of the level and adds the hashes inserted since the snapshot
+     * has been saved. Without a snapshot the filter is built from all hashes of the level.
+     */
+    private void loadHashFilter(StorageLevel level) throws SQLException, IOException {
+        String table = getTableName(level);
+        BloomFilter.Snapshot snapshot = BloomFilter.load(getHashFilterPath(level));
+        BloomFilter filter;
+        long coveredId;
+        try (Connection conn = dbInitializator.getReadConnection()) {
+            if (snapshot != null) {
+                filter = snapshot.getFilter();
+                coveredId = snapshot.getMaxId();
+            } else {
+                long rows = AbstractRecord.getMaxId(conn, table);
+                filter = new BloomFilter(Math.max(config.getHashFilterCapacity(), 2 * rows),
+                        config.getHashFilterFalsePositiveRate());
+                coveredId = 0;
+            }
+            AbstractRecord.forEachHash(conn, table, coveredId, filter::add);
+        }
+        hashFilters.put(level, filter);
+    }
+
+    private String getHashFilterPath(StorageLevel level) {
+        return dirPath + getTableName(level).toLowerCase(Locale.ROOT) + "Storage.bloom";
+    }
+
+    /**
+     * Closes the storage files and the database connections held open by this instance.
+     * The document storage must not be used after it has been closed.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        DocumentWriter queuedWriter;
+        synchronized (this) {
+            queuedWriter = writer;
+        }
+        // the writer may need the lock of this instance to finish the queued documents
+        if (queuedWriter != null) {
+            queuedWriter.close();
+        }
+        for (Storage storage : storageLevelMap.values()) {
+            storage.close();
+        }
+        chunkStorage.close();
+        try {
+            // the snapshots cover the rows up to the current highest id, later rows are added when they are loaded
+            if (!hashFilters.isEmpty()) {
+                try (Connection conn = dbInitializator.getReadConnection()) {
+                    for (Map.Entry<StorageLevel, BloomFilter> entry : hashFilters.entrySet()) {
+                        int maxId = AbstractRecord.getMaxId(conn, getTableName(entry.getKey()));
+                        entry.getValue().save(getHashFilterPath(entry.getKey()), maxId);
+                    }
+                }
+            }
+            urlDictionary.close();
+            dbInitializator.close();
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
     }
 
     /**
@@ -90,99 +266,340 @@ public class DocumentStorage {
             String contentType, long lastChangeTime, boolean saveBinary, Clock clock)
             throws SQLException, IOException {
 
-        DocumentRecord documentRecord = null;
-        for (int retries = 0; retries < 5; retries++) {
-            Connection conn = dbInitializator.getConnection();
-            String checksum = RecordChecksum.getChecksum(bytes);
+        String checksum = getChecksum(StorageLevel.DOCUMENT, bytes);
+        boolean chunked = chunking;
+        return saveDocument(checksum, (documentId, conn) -> writeBinary(bytes, meta, indexerId, contentType,
+                lastChangeTime, path, chunked, documentId, conn), indexerId, path, saveBinary, clock);
+    }
 
-            Url urlRecord = null;
+    /**
+     * Queues the document to be saved by the writer thread of the document storage. The writer saves
+     * the queued documents in batches, one transaction per batch, which is much faster than saving
+     * them one by one when many threads are saving documents.
+     * See {@link #saveDocument(byte[], String, String, String, String, long, boolean, Clock)} for the parameters.
+     * @return - future completed with the document record once the batch with the document has been committed.
+     */
+    public CompletableFuture<DocumentRecord> saveDocumentAsync(byte[] bytes, String indexerId, String path,
+            String meta, String contentType, long lastChangeTime, boolean saveBinary, Clock clock) {
+        String checksum = getChecksum(StorageLevel.DOCUMENT, bytes);
+        return getWriter().submit(new DocumentWriter.Request(checksum, bytes, indexerId, path, meta, contentType,
+                lastChangeTime, saveBinary, clock));
+    }
 
-            try {
-                synchronized (this) {
-                    documentRecord = DocumentRecord.getByHash(conn, checksum);
-                }
-            } catch (RecordNotFoundException e) {
-                System.out.println("Document not found, creating a new one");
-            } catch (SQLException e) {
-                if (e.getErrorCode() == 5) {
-                    System.out.println("Document retrieval Error: BUSY " + path + ", retrying " + retries);
-                    continue;
-                }
+    private synchronized DocumentWriter getWriter() {
+        if (writer == null) {
+            writer = new DocumentWriter(this, config.getWriteBatchSize(), config.getWriteLingerMillis());
+        }
+        return writer;
+    }
+
+    /**
+     * Saves the document with the connection of a transaction in progress, without retrying.
+     * The caller commits or rolls back the transaction.
+     */
+    DocumentRecord saveInTransaction(Connection conn, DocumentWriter.Request request)
+            throws SQLException, IOException, RecordAlreadyExistsException {
+        DocumentRecord documentRecord;
+        try {
+            documentRecord = DocumentRecord.getByHash(conn, request.checksum);
+        } catch (RecordNotFoundException e) {
+            documentRecord = DocumentRecord.create(conn, request.checksum);
+            if (request.saveBinary) {
+                writeBinary(request.bytes, request.meta, request.indexerId, request.contentType,
+                        request.lastChangeTime, request.path, chunking, documentRecord.getId(), conn);
             }
+        }
 
-            try {
-                synchronized (this) {
-                    urlRecord = Url.getByUrl(conn, path);
+        Url urlRecord = Url.getOrCreate(conn, request.path, urlDictionary);
+        OccurrenceRecord occurrence = OccurrenceRecord.create(conn, urlRecord, documentRecord.getId(),
+                request.indexerId, request.clock);
+        documentRecord.addOccurrence(occurrence);
+        return documentRecord;
+    }
+
+    /**
+     * Writes the records and their indexes to the disk, to be called before the transaction saving
+     * the records is committed, so a committed row never points to a record lost by a crash.
+     */
+    void forceStorages() throws IOException {
+        for (Storage storage : storageLevelMap.values()) {
+            storage.force();
+        }
+    }
+
+    /**
+     * Puts the urls of the occurrences of the record into the url dictionary, to be called once
+     * the transaction which has saved them has been committed.
+     */
+    void publishUrls(DocumentRecord record) {
+        try {
+            for (OccurrenceRecord occurrence : record.getOccurrences()) {
+                urlDictionary.put(occurrence.getUrl().getUrl(), occurrence.getUrl().getId());
+            }
+        } catch (IOException e) {
+            // the urls are read from the Url table when the dictionary is opened again
+            e.printStackTrace();
+        }
+    }
+
+    /** Writes the binary of a new document, leaving the connection open on failure. */
+    private void writeBinary(byte[] bytes, String meta, String indexerId, String contentType, long lastChangeTime,
+            String path, boolean chunked, int documentId, Connection conn) throws SQLException, IOException {
+        if (chunked) {
+            saveChunked(ByteBuffer.wrap(bytes), meta, indexerId, contentType, lastChangeTime, path, documentId, conn);
+        } else {
+            storageLevelMap.get(StorageLevel.DOCUMENT).save(bytes, meta, indexerId, contentType, lastChangeTime,
+                    path, null, documentId);
+        }
+    }
+
+    /**
+     * Streaming variant of {@link #saveDocument(byte[], String, String, String, String, long, boolean, Clock)}
+     * for documents which should not be held in memory at once.
+     */
+    public DocumentRecord saveDocument(InputStream input, String indexerId, String path, String meta,
+            String contentType, long lastChangeTime, boolean saveBinary, Clock clock)
+            throws SQLException, IOException {
+        return saveDocument(Channels.newChannel(input), indexerId, path, meta, contentType, lastChangeTime, saveBinary, clock);
+    }
+
+    /**
+     * Streaming variant of {@link #saveDocument(byte[], String, String, String, String, long, boolean, Clock)}
+     * for documents which should not be held in memory at once.
+     * The document is encoded into a staging file in the storage directory while its checksum is computed,
+     * and the staged bytes are moved into the document storage only if the document is not a duplicate.
+     * Memory use does not depend on the size of the document.
+     */
+    public DocumentRecord saveDocument(ReadableByteChannel input, String indexerId, String path, String meta,
+            String contentType, long lastChangeTime, boolean saveBinary, Clock clock)
+            throws SQLException, IOException {
+
+        Hasher hasher = config.getChecksumAlgorithm(StorageLevel.DOCUMENT).newHasher();
+        ByteBuffer buffer = ByteBuffer.allocate(STAGING_BUFFER_SIZE);
+
+        if (!saveBinary) {
+            while (input.read(buffer) >= 0) {
+                buffer.flip();
+                hasher.update(buffer);
+                buffer.clear();
+            }
+            return saveDocument(RecordChecksum.toHex(hasher.digest()), null, indexerId, path, false, clock);
+        }
+
+        Storage storage = storageLevelMap.get(StorageLevel.DOCUMENT);
+        Codec codec = storage.getCodecPolicy().select(contentType);
+        if (codec == Codec.DICTIONARY) {
+            // dictionaries are meant for short records, a streamed document is large enough to be compressed alone
+            codec = Codec.DEFLATE;
+        }
+        boolean chunked = chunking;
+        if (chunked) {
+            // chunks are compressed one by one, the staged document has to stay as it is
+            codec = Codec.NONE;
+        }
+        Path staging = Files.createTempFile(Paths.get(dirPath), "staging", ".tmp");
+        try {
+            try (OutputStream out = codec.newEncoder(
+                    new BufferedOutputStream(Files.newOutputStream(staging), STAGING_BUFFER_SIZE))) {
+                while (input.read(buffer) >= 0) {
+                    hasher.update(buffer.array(), 0, buffer.position());
+                    out.write(buffer.array(), 0, buffer.position());
+                    buffer.clear();
                 }
-            } catch (RecordNotFoundException e) {
-                System.out.println("Url not found, creating a new one");
-            } catch (SQLException e) {
-                if (e.getErrorCode() == 5) {
-                    System.out.println("URL retrieval Error: BUSY " + path + ", retrying " + retries);
-                    continue;
+            }
+
+            String checksum = RecordChecksum.toHex(hasher.digest());
+            try (FileChannel stagingChannel = FileChannel.open(staging, StandardOpenOption.READ)) {
+                long length = stagingChannel.size();
+                Codec stagedCodec = codec;
+                return saveDocument(checksum, (documentId, conn) -> {
+                    if (chunked && length <= Integer.MAX_VALUE) {
+                        ByteBuffer document = stagingChannel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+                        saveChunked(document, meta, indexerId, contentType, lastChangeTime, path, documentId, conn);
+                        return;
+                    }
+                    stagingChannel.position(0);
+                    storage.save(stagingChannel, length, stagedCodec, meta, indexerId, contentType, lastChangeTime, path,
+                            documentId, conn);
+                }, indexerId, path, true, clock);
+            }
+        } finally {
+            Files.deleteIfExists(staging);
+        }
+    }
+
+    /**
+     * Saves the document as a list of content-defined chunks. Every chunk is stored only once,
+     * so a new version of a document costs only the chunks which have changed.
+     * The chunks missing in the Chunk table are written into the chunk storage before their rows
+     * are inserted, and the rows are committed together with the chunk list of the document,
+     * so a committed chunk row always points to its bytes.
+     */
+    private void saveChunked(ByteBuffer document, String meta, String indexerId, String contentType,
+            long lastChangeTime, String path, int documentId, Connection conn) throws SQLException, IOException {
+        int[] cuts = chunker.split(document);
+
+        String[] hashes = new String[cuts.length];
+        for (int i = 0; i < cuts.length; i++) {
+            hashes[i] = RecordChecksum.getChecksum(getChunk(document, cuts, i));
+        }
+
+        // chunks stored already are not written again, chunks of other transactions are written anyway
+        // and stay unreferenced if the other transaction inserts their rows first
+        Map<String, Integer> storedIds = ChunkRecord.getIds(conn, hashes);
+        Map<String, IndexEntry> written = new HashMap<>();
+        for (int i = 0; i < cuts.length; i++) {
+            if (!storedIds.containsKey(hashes[i]) && !written.containsKey(hashes[i])) {
+                ByteBuffer chunk = getChunk(document, cuts, i);
+                byte[] bytes = new byte[chunk.remaining()];
+                chunk.get(bytes);
+                written.put(hashes[i], chunkStorage.writeRecord(bytes, contentType, null));
+            }
+        }
+
+        // the connection of the legacy saveDocument is in autocommit mode
+        boolean autoCommit = conn.getAutoCommit();
+        if (autoCommit) {
+            conn.setAutoCommit(false);
+        }
+        try {
+            ChunkRecord[] chunkRecords = ChunkRecord.createMany(conn, hashes);
+            int[] chunkIds = new int[cuts.length];
+            for (int i = 0; i < cuts.length; i++) {
+                chunkIds[i] = chunkRecords[i].getId();
+                if (chunkRecords[i].isCreated()) {
+                    IndexEntry entry = written.get(hashes[i]);
+                    if (entry == null) {
+                        throw new SQLException("Chunk " + hashes[i] + " has been deleted during the save");
+                    }
+                    chunkStorage.writeIndex(chunkIds[i], entry);
                 }
             }
 
-            if (documentRecord == null) {
+            storageLevelMap.get(StorageLevel.DOCUMENT).saveChunked(chunkIds, meta, indexerId, contentType,
+                    lastChangeTime, path, documentId);
+            if (autoCommit) {
+                forceStorages();
+                conn.commit();
+            }
+        } catch (SQLException | IOException | RuntimeException e) {
+            if (autoCommit) {
+                conn.rollback();
+            }
+            throw e;
+        } finally {
+            if (autoCommit) {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    private static ByteBuffer getChunk(ByteBuffer document, int[] cuts, int index) {
+        ByteBuffer chunk = document.duplicate();
+        chunk.limit(document.position() + cuts[index]);
+        chunk.position(document.position() + (index == 0 ? 0 : cuts[index - 1]));
+        return chunk;
+    }
+
+    /**
+     * Turns the chunked storage mode of documents on or off. In the chunked mode documents are split
+     * into content-defined chunks and every distinct chunk is stored only once, which makes storing
+     * recrawled pages differing in a few places cheap. Documents saved in either mode can always be read.
+     */
+    public void setChunking(boolean chunking) {
+        this.chunking = chunking;
+    }
+
+    /** Saves the document with the given checksum, the binary writer is called only for a new document. */
+    private DocumentRecord saveDocument(String checksum, BinaryWriter binaryWriter, String indexerId, String path,
+            boolean saveBinary, Clock clock) throws SQLException, IOException {
+
+        DocumentRecord documentRecord = null;
+        for (int retries = 0; retries < 5; retries++) {
+            Connection conn = dbInitializator.getConnection();
+            try {
+                Url urlRecord = null;
+
                 try {
                     synchronized (this) {
-                        documentRecord = DocumentRecord.create(conn, checksum);
+                        documentRecord = DocumentRecord.getByHash(conn, checksum);
                     }
-                    if (saveBinary) {
-                        storageLevelMap.get(StorageLevel.DOCUMENT).save(bytes, meta, indexerId, contentType, lastChangeTime, path,
-                                documentRecord.getId(), conn);
-                    }
-                } catch (RecordAlreadyExistsException e) {
-                    System.out.println("Database is not synchronized, retrying.");
-                    continue;
+                } catch (RecordNotFoundException e) {
+                    System.out.println("Document not found, creating a new one");
                 } catch (SQLException e) {
                     if (e.getErrorCode() == 5) {
-                        System.out.println("Document creation Error: BUSY " + path + ", retrying " + retries);
+                        System.out.println("Document retrieval Error: BUSY " + path + ", retrying " + retries);
                         continue;
                     }
-                    System.out.println("Error: " + path + " " + retries);
-                    System.out.println("Failed to create a document record.");
-                    e.printStackTrace();
-                    conn.close();
-                    throw e;
                 }
-            }
 
-            if (urlRecord == null) {
+
+                if (documentRecord == null) {
+                    try {
+                        synchronized (this) {
+                            documentRecord = DocumentRecord.create(conn, checksum);
+                        }
+                        if (saveBinary) {
+                            binaryWriter.write(documentRecord.getId(), conn);
+                            forceStorages();
+                        }
+                    } catch (RecordAlreadyExistsException e) {
+                        System.out.println("Database is not synchronized, retrying.");
+                        continue;
+                    } catch (SQLException e) {
+                        if (e.getErrorCode() == 5) {
+                            System.out.println("Document creation Error: BUSY " + path + ", retrying " + retries);
+                            continue;
+                        }
+                        System.out.println("Error: " + path + " " + retries);
+                        System.out.println("Failed to create a document record.");
+                        e.printStackTrace();
+                        conn.close();
+                        throw e;
+                    }
+                }
+
+                if (urlRecord == null) {
+                    try {
+                        synchronized (this) {
+                            urlRecord = Url.getOrCreate(conn, path, urlDictionary);
+                        }
+                    } catch (SQLException e) {
+                        if (e.getErrorCode() == 5) {
+                            System.out.println("URL creation Error: BUSY " + path + ", retrying " + retries);
+                            continue;
+                        }
+                        System.out.println("Error: " + path + " " + retries);
+                        System.out.println("URL Creation  Failed to create a URL record.");
+                        e.printStackTrace();
+                        conn.close();
+                        throw e;
+                    }
+                }
+
                 try {
                     synchronized (this) {
-                        urlRecord = Url.create(conn, path);
+                        OccurrenceRecord occurrence = OccurrenceRecord.create(conn, urlRecord, documentRecord.getId(), indexerId, clock);
+                        documentRecord.addOccurrence(occurrence);
                     }
-                } catch (RecordAlreadyExistsException e) {
-                    System.out.println("Database is not synchronized, retrying.");
-                    continue;
+                    // the connection is in autocommit mode, the url has been committed already
+                    urlDictionary.put(path, urlRecord.getId());
                 } catch (SQLException e) {
-                    System.out.println("Error: " + path + " " + retries);
-                    System.out.println("URL Creation  Failed to create a URL record.");
+                    if (e.getErrorCode() == 5) {
+                        System.out.println("Occurance creation Error: BUSY " + path + ", retrying " + retries);
+                        continue;
+                    }
+                    System.out.println("Failed to create a occurrence record.");
                     e.printStackTrace();
                     conn.close();
                     throw e;
                 }
-            }
 
-            try {
-                synchronized (this) {
-                    OccurrenceRecord occurrence = OccurrenceRecord.create(conn, urlRecord, documentRecord.getId(), indexerId, clock);
-                    documentRecord.addOccurrence(occurrence);
-                }
-            } catch (SQLException e) {
-                if (e.getErrorCode() == 5) {
-                    System.out.println("Occurance creation Error: BUSY " + path + ", retrying " + retries);
-                    continue;
-                }
-                System.out.println("Failed to create a occurrence record.");
-                e.printStackTrace();
+                break;
+            } finally {
+                // returns the connection to the pool on every path, closing it twice is harmless
                 conn.close();
-                throw e;
             }
-
-            conn.close();
-            break;
         }
 
         return documentRecord;
@@ -193,14 +610,12 @@ public class DocumentStorage {
      */
     public ParagraphRecord[] saveParagraphs(Connection conn, String[] paragraphs, DocumentMeta doc) throws SQLException, IOException {
 
-        String[] paragraphHashes = new String[paragraphs.length];
-        for (int i = 0; i < paragraphHashes.length; i++) {
-            paragraphHashes[i] = RecordChecksum.getChecksum(paragraphs[i]);
-        }
-        
+        String[] paragraphHashes = hashAll(StorageLevel.PARAGRAPH, Arrays.asList(paragraphs)).toHexArray();
+
         ParagraphRecord[] paragraphRecords;
         synchronized (this) {
-            paragraphRecords = ParagraphRecord.createMany(conn, paragraphHashes);
+            paragraphRecords = ParagraphRecord.createMany(conn, paragraphHashes,
+                    hashCaches.get(StorageLevel.PARAGRAPH), hashFilters.get(StorageLevel.PARAGRAPH));
             DocumentOfParagraph.createMany(conn, doc.id, paragraphRecords);
         }
 
@@ -208,26 +623,27 @@ public class DocumentStorage {
     }
 
     public void saveBinary(Connection conn, int id, StorageLevel level, String data, DocumentMeta doc) throws SQLException, IOException {
-        storageLevelMap.get(level).save(data.getBytes(), doc.meta, doc.indexerId, doc.contentType,
-                doc.lastChangeTime, doc.path, id, conn);
+        storageLevelMap.get(level).save(data.getBytes(StandardCharsets.UTF_8), doc.meta, doc.indexerId, doc.contentType,
+                doc.lastChangeTime, doc.path, doc.language, id, conn);
     }
 
     /** Method for batched saving of sentences. */
     public List<List<SentenceRecord>> saveSentences(Connection conn, List<List<String>> sentencesOfParagraphs, DocumentMeta doc,
             ParagraphRecord[] paragraphRecords) throws SQLException, IOException {
 
-        List<List<String>> sentenceHashes = new LinkedList<>();
+        List<String> flatHashes = Arrays.asList(hashAll(StorageLevel.SENTENCE, flatten(sentencesOfParagraphs))
+                .toHexArray());
+        List<List<String>> sentenceHashes = new ArrayList<>(sentencesOfParagraphs.size());
+        int from = 0;
         for (List<String> sentences : sentencesOfParagraphs) {
-            List<String> hashes = new ArrayList<>();
-            for (String sentence : sentences) {
-                hashes.add(RecordChecksum.getChecksum(sentence));
-            }
-            sentenceHashes.add(hashes);
+            sentenceHashes.add(flatHashes.subList(from, from + sentences.size()));
+            from += sentences.size();
         }
 
         List<List<SentenceRecord>> sentenceRecords;
         synchronized (this) {
-            sentenceRecords = SentenceRecord.createMany(conn, sentenceHashes, paragraphRecords);
+            sentenceRecords = SentenceRecord.createMany(conn, sentenceHashes, paragraphRecords,
+                    hashCaches.get(StorageLevel.SENTENCE), hashFilters.get(StorageLevel.SENTENCE));
             ParagraphOfSentence.createMany(conn, paragraphRecords, sentenceRecords);
             SentenceOccurrence.createMany(conn, doc, paragraphRecords, sentenceRecords);
         }
@@ -235,10 +651,183 @@ public class DocumentStorage {
         return sentenceRecords;
     }
 
+    /**
+     * Hashes the texts with the checksum algorithm of the level, long documents are hashed in the common
+     * fork-join pool if {@link StorageConfig#withParallelHashing} is on.
+     */
+    private DigestArray hashAll(StorageLevel level, List<? extends CharSequence> texts) {
+        return DigestArray.hash(config.getChecksumAlgorithm(level), texts, config.isParallelHashing());
+    }
+
+    /** Returns the sentences of all paragraphs in one list. */
+    private static List<String> flatten(List<List<String>> sentencesOfParagraphs) {
+        int count = 0;
+        for (List<String> sentences : sentencesOfParagraphs) {
+            count += sentences.size();
+        }
+        List<String> result = new ArrayList<>(count);
+        for (List<String> sentences : sentencesOfParagraphs) {
+            result.addAll(sentences);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the checksum identifying the record of the level with the bytes, computed with the checksum
+     * algorithm of the level, e.g. for looking up a document by its hash.
+     */
+    public String getChecksum(StorageLevel level, byte[] bytes) {
+        return config.getChecksumAlgorithm(level).checksum(bytes);
+    }
+
+    /** Returns the checksum identifying the record of the level with the UTF-8 encoded text. */
+    public String getChecksum(StorageLevel level, CharSequence text) {
+        return config.getChecksumAlgorithm(level).checksum(text);
+    }
+
+    /**
+     * Returns the cache of the ids of the paragraph or sentence hashes, e.g. to read its hit rate.
+     * @return the cache, or null for the document level, which is not cached
+     */
+    public HashIdCache getHashCache(StorageLevel level) {
+        return hashCaches.get(level);
+    }
+
+    /**
+     * Returns the Bloom filter of the paragraph or sentence hashes, e.g. to read its size.
+     * @return the filter, or null for the document level or when the filters are turned off
+     */
+    public BloomFilter getHashFilter(StorageLevel level) {
+        return hashFilters.get(level);
+    }
+
+    /**
+     * Saves the document together with its paragraphs and sentences in a single transaction, so a failure
+     * never leaves the document half indexed. Binaries are saved only for the records which are new.
+     * @param doc metadata of the document, its id is set to the id of the saved document
+     * @param bytes binary of the document
+     * @param paragraphs texts of the paragraphs in the order of the document
+     * @param sentences texts of the sentences of every paragraph
+     * @return records of the document, its paragraphs and sentences
+     */
+    public IngestResult ingest(DocumentMeta doc, byte[] bytes, String[] paragraphs, List<List<String>> sentences)
+            throws SQLException, IOException {
+        return ingest(Collections.singletonList(new IngestRequest(doc, bytes, paragraphs, sentences))).get(0);
+    }
+
+    /**
+     * Saves the documents together with their paragraphs and sentences in a single transaction,
+     * one commit for the whole group. See {@link #ingest(DocumentMeta, byte[], String[], List)}.
+     */
+    public List<IngestResult> ingest(List<IngestRequest> requests) throws SQLException, IOException {
+        return ingest(requests, Clock.systemUTC());
+    }
+
+    /**
+     * Saves the documents together with their paragraphs and sentences in a single transaction,
+     * the clock gives the time of the new occurrences.
+     */
+    public List<IngestResult> ingest(List<IngestRequest> requests, Clock clock) throws SQLException, IOException {
+        SQLException busy = null;
+        for (int retries = 0; retries < 5; retries++) {
+            List<IngestResult> results = new ArrayList<>(requests.size());
+            try (Connection conn = dbInitializator.getConnection()) {
+                conn.setAutoCommit(false);
+                try (StatementCache statements = new StatementCache(conn)) {
+                    for (IngestRequest request : requests) {
+                        results.add(ingest(statements, request, clock));
+                    }
+                    forceStorages();
+                    conn.commit();
+                } catch (SQLException | IOException | RuntimeException e) {
+                    conn.rollback();
+                    throw e;
+                }
+            } catch (SQLException e) {
+                if (e.getErrorCode() != 5) {
+                    throw e;
+                }
+                LOGGER.log(Level.FINE, "Ingest transaction found the database busy, retry " + (retries + 1), e);
+                busy = e;
+                continue;
+            }
+
+            // only committed ids may be cached, a rolled back transaction would leave stale ids behind
+            for (int i = 0; i < requests.size(); i++) {
+                IngestResult result = results.get(i);
+                requests.get(i).doc.id = result.getDocument().getId();
+                publishUrls(result.getDocument());
+                hashCaches.get(StorageLevel.PARAGRAPH).putAll(result.getParagraphs());
+                for (List<SentenceRecord> sentences : result.getSentences()) {
+                    hashCaches.get(StorageLevel.SENTENCE).putAll(sentences);
+                }
+            }
+            return results;
+        }
+        throw busy;
+    }
+
+    /** Saves a single document of an ingest transaction with the cached statements. */
+    private IngestResult ingest(StatementCache statements, IngestRequest request, Clock clock)
+            throws SQLException, IOException {
+        DocumentMeta doc = request.doc;
+        String[] paragraphs = request.paragraphs == null ? new String[0] : request.paragraphs;
+        List<List<String>> sentences = request.sentences == null ? Collections.emptyList() : request.sentences;
+        if (sentences.size() > paragraphs.length) {
+            throw new IllegalArgumentException("There are sentences of " + sentences.size() + " paragraphs, but only "
+                    + paragraphs.length + " paragraphs");
+        }
+
+        DocumentRecord document = DocumentRecord.createIfAbsent(statements,
+                getChecksum(StorageLevel.DOCUMENT, request.bytes));
+        Url url = Url.getOrCreate(statements, doc.path, urlDictionary);
+        document.addOccurrence(OccurrenceRecord.create(statements, url, document.getId(), doc.indexerId, clock));
+        if (document.isCreated()) {
+            writeBinary(request.bytes, doc.meta, doc.indexerId, doc.contentType, doc.lastChangeTime, doc.path,
+                    chunking, document.getId(), statements.getConnection());
+        }
+
+        DigestArray paragraphDigests = hashAll(StorageLevel.PARAGRAPH, Arrays.asList(paragraphs));
+        ParagraphRecord[] paragraphRecords = ParagraphRecord.createMany(statements, paragraphDigests,
+                hashCaches.get(StorageLevel.PARAGRAPH), hashFilters.get(StorageLevel.PARAGRAPH));
+        DocumentOfParagraph.createMany(statements, document.getId(), paragraphRecords);
+        Storage paragraphStorage = storageLevelMap.get(StorageLevel.PARAGRAPH);
+        for (int i = 0; i < paragraphs.length; i++) {
+            if (paragraphRecords[i].isCreated()) {
+                paragraphStorage.save(paragraphs[i].getBytes(StandardCharsets.UTF_8), doc.meta, doc.indexerId, doc.contentType,
+                        doc.lastChangeTime, doc.path, doc.language, paragraphRecords[i].getId());
+            }
+        }
+
+        int[] sentenceCounts = new int[sentences.size()];
+        for (int i = 0; i < sentenceCounts.length; i++) {
+            sentenceCounts[i] = sentences.get(i).size();
+        }
+        DigestArray sentenceDigests = hashAll(StorageLevel.SENTENCE, flatten(sentences));
+        List<List<SentenceRecord>> sentenceRecords = SentenceRecord.createMany(statements, sentenceDigests,
+                sentenceCounts, hashCaches.get(StorageLevel.SENTENCE), hashFilters.get(StorageLevel.SENTENCE));
+        ParagraphOfSentence.createMany(statements, paragraphRecords, sentenceRecords);
+        SentenceOccurrence.createMany(statements, document.getId(), paragraphRecords, sentenceRecords);
+        Storage sentenceStorage = storageLevelMap.get(StorageLevel.SENTENCE);
+        for (int i = 0; i < sentences.size(); i++) {
+            for (int j = 0; j < sentences.get(i).size(); j++) {
+                SentenceRecord sentence = sentenceRecords.get(i).get(j);
+                if (sentence.isCreated()) {
+                    sentenceStorage.save(sentences.get(i).get(j).getBytes(StandardCharsets.UTF_8), doc.meta, doc.indexerId,
+                            doc.contentType, doc.lastChangeTime, doc.path, doc.language, sentence.getId());
+                }
+            }
+        }
+
+        return new IngestResult(document, paragraphRecords, sentenceRecords);
+    }
+
     /**
      * Function for obtaining the DocumentStorage metadata in a map.
      * @return a map with metadata in a format Map[DocID, Map[MetaKey, MetaValue]]
+     * @deprecated holds all metadata of the level in memory, use {@link #forEachMeta} instead
      */
+    @Deprecated
     public Map<String, Map<String, String>> getMeta(StorageLevel level) {
         try {
             return storageLevelMap.get(level).getMetaController().getAllMeta();
@@ -248,6 +837,30 @@ public class DocumentStorage {
         }
     }
 
+    /**
+     * Function for streaming the DocumentStorage metadata without holding them in memory.
+     * The metadata file is read sequentially, a single record object is reused for all rows,
+     * so the visitor must copy the fields it wants to keep.
+     * @param level storage level
+     * @param filter filter of the records, e.g. {@code MetaFilter.all().withIndexer("crawler")}
+     * @param visitor consumer of the accepted records
+     * @throws IOException
+     */
+    public void forEachMeta(StorageLevel level, MetaFilter filter, Consumer<MetaRecord> visitor) throws IOException {
+        storageLevelMap.get(level).getMetaController().forEachMeta(filter, visitor);
+    }
+
+    /**
+     * Function for obtaining the metadata of a single record, the metadata file is not scanned.
+     * @param hash - hash of the record.
+     * @return - metadata of the record, null if the record has been saved without them.
+     * @throws IOException
+     * @throws RecordNotFoundException
+     */
+    public MetaRecord getMeta(StorageLevel level, String hash) throws IOException, RecordNotFoundException {
+        return storageLevelMap.get(level).getMetaController().getMeta(getRecord(level, hash).getId());
+    }
+
     /**
      * Function for obtaining the document record with its indexing information.
      * @param hash - hash of the document.
@@ -258,10 +871,8 @@ public class DocumentStorage {
     public DocumentRecord getDocumentRecord(String hash) throws RecordNotFoundException {
         DocumentRecord doc;
 
-        try {
-            Connection conn = dbInitializator.getConnection();
+        try (Connection conn = dbInitializator.getReadConnection()) {
             doc = DocumentRecord.getByHash(conn, hash);
-            conn.close();
         } catch (IOException | SQLException e) {
             throw new RuntimeException(e);
         }
@@ -269,6 +880,27 @@ public class DocumentStorage {
         return doc;
     }
 
+    /**
+     * Obtains the document records of many hashes on one connection with a single query.
+     * @param hashes - hashes of the documents
+     * @return - map from every hash in the order of the collection to its document record,
+     *  empty if there is no document with the hash, e.g. because it is not a hex string
+     */
+    public Map<String, Optional<DocumentRecord>> getDocumentRecords(Collection<String> hashes) {
+        Map<String, DocumentRecord> found;
+        try (Connection conn = dbInitializator.getReadConnection()) {
+            found = DocumentRecord.getByHashes(conn, hashes);
+        } catch (IOException | SQLException e) {
+            throw new RuntimeException(e);
+        }
+
+        Map<String, Optional<DocumentRecord>> records = new LinkedHashMap<>();
+        for (String hash : hashes) {
+            records.put(hash, Optional.ofNullable(found.get(hash.toLowerCase(Locale.ROOT))));
+        }
+        return records;
+    }
+
     /**
      * Function for obtaining the document record by url in a timespan
      * @param url
@@ -281,10 +913,8 @@ public class DocumentStorage {
     public DocumentRecord getDocumentRecord(String url, long lowTime, long highTime) throws RecordNotFoundException {
         DocumentRecord doc;
 
-        try {
-            Connection conn = dbInitializator.getConnection();
+        try (Connection conn = dbInitializator.getReadConnection()) {
             doc = DocumentRecord.getByUrlAndTime(conn, url, lowTime, highTime);
-            conn.close();
         } catch (IOException | SQLException e) {
             throw new RuntimeException(e);
         }
@@ -303,10 +933,8 @@ public class DocumentStorage {
     public DocumentRecord getDocumentRecord(String url, long timestamp) throws RecordNotFoundException {
         DocumentRecord doc;
 
-        try {
-            Connection conn = dbInitializator.getConnection();
+        try (Connection conn = dbInitializator.getReadConnection()) {
             doc = DocumentRecord.getClosestByUrl(conn, url, timestamp);
-            conn.close();
         } catch (IOException | SQLException e) {
             throw new RuntimeException(e);
         }
@@ -325,10 +953,8 @@ public class DocumentStorage {
     public DocumentRecord getDocumentRecordBefore(String url, long before) throws RecordNotFoundException {
         DocumentRecord doc;
 
-        try {
-            Connection conn = dbInitializator.getConnection();
+        try (Connection conn = dbInitializator.getReadConnection()) {
             doc = DocumentRecord.getClosestBefore(conn, url, before);
-            conn.close();
         } catch (IOException | SQLException e) {
             throw new RuntimeException(e);
         }
@@ -347,10 +973,8 @@ public class DocumentStorage {
     public DocumentRecord getDocumentRecordAfter(String url, long before) throws RecordNotFoundException {
         DocumentRecord doc;
 
-        try {
-            Connection conn = dbInitializator.getConnection();
+        try (Connection conn = dbInitializator.getReadConnection()) {
             doc = DocumentRecord.getClosestAfter(conn, url, before);
-            conn.close();
         } catch (IOException | SQLException e) {
             throw new RuntimeException(e);
         }
@@ -358,6 +982,21 @@ public class DocumentStorage {
         return doc;
     }
 
+    /**
+     * Function for listing the versions of the url in time order, page by page.
+     * @param url
+     * @param after cursor of the previous page, null for the first page
+     * @param limit maximal number of versions of the page
+     * @return Page of document records with the single occurrence of every version
+     */
+    public TimelinePage getTimeline(String url, TimelinePage.Cursor after, int limit) {
+        try (Connection conn = dbInitializator.getReadConnection()) {
+            return DocumentRecord.getTimeline(conn, url, after, limit);
+        } catch (IOException | SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Obtains record with its indexing information.
      * @param level required level
@@ -368,8 +1007,7 @@ public class DocumentStorage {
     public AbstractRecord getRecord(StorageLevel level, String hash) throws RecordNotFoundException {
         AbstractRecord record; 
 
-        try {
-            Connection conn = dbInitializator.getConnection();
+        try (Connection conn = dbInitializator.getReadConnection()) {
             switch (level) {
             case SENTENCE:
                 record = SentenceRecord.getByHash(conn, hash);
@@ -381,7 +1019,6 @@ public class DocumentStorage {
                 record = DocumentRecord.getByHash(conn, hash);
                 break;
             }
-            conn.close();
         } catch (IOException | SQLException e) {
             throw new RuntimeException(e);
         }
@@ -399,8 +1036,7 @@ public class DocumentStorage {
     public AbstractRecord getRecord(StorageLevel level, int id) throws RecordNotFoundException {
         AbstractRecord record; 
 
-        try {
-            Connection conn = dbInitializator.getConnection();
+        try (Connection conn = dbInitializator.getReadConnection()) {
             switch (level) {
             case SENTENCE:
                 record = SentenceRecord.getById(conn, id);
@@ -412,7 +1048,6 @@ public class DocumentStorage {
                 record = DocumentRecord.getById(conn, id);
                 break;
             }
-            conn.close();
         } catch (IOException | SQLException e) {
             throw new RuntimeException(e);
         }
@@ -420,6 +1055,39 @@ public class DocumentStorage {
         return record;
     }
 
+    /**
+     * Obtains the records of many ids on one connection with a single query,
+     * document records come with their occurrences.
+     * @param level required level
+     * @param ids ids of the records.
+     * @return map from every id in the order of the array to its record, empty if there is no record with the id
+     */
+    public Map<Integer, Optional<AbstractRecord>> getRecords(StorageLevel level, int[] ids) {
+        Map<Integer, ? extends AbstractRecord> found;
+
+        try (Connection conn = dbInitializator.getReadConnection()) {
+            switch (level) {
+            case SENTENCE:
+                found = SentenceRecord.getByIds(conn, ids);
+                break;
+            case PARAGRAPH:
+                found = ParagraphRecord.getByIds(conn, ids);
+                break;
+            default:
+                found = DocumentRecord.getByIds(conn, ids);
+                break;
+            }
+        } catch (IOException | SQLException e) {
+            throw new RuntimeException(e);
+        }
+
+        Map<Integer, Optional<AbstractRecord>> records = new LinkedHashMap<>();
+        for (int id : ids) {
+            records.put(id, Optional.ofNullable(found.get(id)));
+        }
+        return records;
+    }
+
     /**
      * Function for retrieving a document from the document storage with a hash.
      * @param hash - a hash of the document to retrieve.
@@ -428,11 +1096,117 @@ public class DocumentStorage {
      * @throws RecordNotFoundException
      */
     public byte[] getBinaryRecord(StorageLevel level, String hash) throws IOException, RecordNotFoundException {
-        AbstractRecord doc = getRecord(level, hash);
-        long id = doc.getId();
-        long offset = storageLevelMap.get(level).getIndexController().getOffset(id);
-        long length = storageLevelMap.get(level).getIndexController().getLength(id);
-        return storageLevelMap.get(level).getStorageController().read(offset, length);
+        return storageLevelMap.get(level).read(getRecord(level, hash).getId());
+    }
+
+    /**
+     * Function for retrieving many records of a level from the document storage, e.g. all sentences
+     * of a document. The records are read in the order of their location in the data files,
+     * records lying close to each other with a single read.
+     * @param ids - ids of the records to retrieve.
+     * @return - records in the binary form in the order of the ids.
+     * @throws IOException
+     */
+    public List<byte[]> getBinaryRecords(StorageLevel level, int[] ids) throws IOException {
+        long[] recordIds = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            recordIds[i] = ids[i];
+        }
+        return Arrays.asList(storageLevelMap.get(level).readMany(recordIds));
+    }
+
+    /**
+     * Function for retrieving a document from the document storage without copying it onto the heap.
+     * Only documents stored without compression can be returned without a copy.
+     * @param hash - a hash of the document to retrieve.
+     * @return - read-only buffer with the document in the binary form.
+     * @throws IOException
+     * @throws RecordNotFoundException
+     */
+    public ByteBuffer getBinaryRecordBuffer(StorageLevel level, String hash) throws IOException, RecordNotFoundException {
+        return storageLevelMap.get(level).readBuffer(getRecord(level, hash).getId());
+    }
+
+    /**
+     * Function for writing a document from the document storage directly to a channel,
+     * e.g. a socket or a file, without copying it onto the heap.
+     * Compressed documents are decompressed while being written.
+     * @param hash - a hash of the document to retrieve.
+     * @param target - channel the document is written to.
+     * @return - number of written bytes.
+     * @throws IOException
+     * @throws RecordNotFoundException
+     */
+    public long transferBinaryRecord(StorageLevel level, String hash, WritableByteChannel target)
+            throws IOException, RecordNotFoundException {
+        return storageLevelMap.get(level).transferTo(getRecord(level, hash).getId(), target);
+    }
+
+    /**
+     * Sets the policy selecting how newly saved records of the level are compressed, records are stored
+     * uncompressed unless a policy is set here or by {@link StorageConfig#withCodecPolicy}. The policy of
+     * the documents applies to the chunks of chunked documents as well. Records saved before keep
+     * their encoding, the codec of every record is kept in its index entry.
+     * @param level storage level
+     * @param codecPolicy policy selecting the codec by the content type of the record
+     */
+    public void setCodecPolicy(StorageLevel level, CodecPolicy codecPolicy) {
+        storageLevelMap.get(level).setCodecPolicy(codecPolicy);
+        if (level == StorageLevel.DOCUMENT) {
+            chunkStorage.setCodecPolicy(codecPolicy);
+        }
+    }
+
+    /**
+     * Trains a new compression dictionary of the level from a random sample of the stored records.
+     * The dictionary is used for records of any language saved from now on.
+     * @param level storage level, meant for sentences and paragraphs
+     * @param sampleSize number of records to sample
+     * @return version of the new dictionary
+     */
+    public int trainDictionary(StorageLevel level, int sampleSize) throws SQLException, IOException {
+        int maxId;
+        try (Connection conn = dbInitializator.getReadConnection()) {
+            maxId = AbstractRecord.getMaxId(conn, getTableName(level));
+        }
+
+        Storage storage = storageLevelMap.get(level);
+        List<byte[]> samples = new ArrayList<>();
+        Random random = new Random();
+        for (int i = 0; i < sampleSize && maxId > 0; i++) {
+            byte[] record = storage.read(1 + random.nextInt(maxId));
+            if (record.length > 0) {
+                samples.add(record);
+            }
+        }
+        return storage.trainDictionary(null, samples, DICTIONARY_SIZE).getVersion();
+    }
+
+    /**
+     * Trains a new compression dictionary of the level for the language from the given samples,
+     * e.g. sentences of the language. It is used for records saved with that language from now on.
+     * @param level storage level, meant for sentences and paragraphs
+     * @param language language of the samples, as in {@link DocumentMeta#language}
+     * @param samples sample records
+     * @return version of the new dictionary
+     */
+    public int trainDictionary(StorageLevel level, String language, List<String> samples) throws IOException {
+        List<byte[]> sampleBytes = new ArrayList<>(samples.size());
+        for (String sample : samples) {
+            sampleBytes.add(sample.getBytes(StandardCharsets.UTF_8));
+        }
+        return storageLevelMap.get(level).trainDictionary(language, sampleBytes, DICTIONARY_SIZE).getVersion();
+    }
+
+    private static String getTableName(StorageLevel level) {
+        switch (level) {
+        case SENTENCE:
+            return "Sentence";
+        case PARAGRAPH:
+            return "Paragraph";
+        default:
+            return "Document";
+        }
     }
 
     public List<Map<String, String>> getMappedLevels(String[] inValues, String inType,
@@ -442,8 +1216,7 @@ public class DocumentStorage {
             overLevel = Optional.empty();
         }
 
-        try {
-            Connection conn = dbInitializator.getConnection();
+        try (Connection conn = dbInitializator.getReadConnection()) {
             if (overLevel.isEmpty()) {
                 result = DocumentMapper.executeNonOver(conn, inValues,
                         inType, outType, inLevel, outLevel, includeOrigin);
@@ -451,7 +1224,6 @@ public class DocumentStorage {
                 result = DocumentMapper.executeOver(conn, inValues,
                         inType, outType, inLevel, outLevel, overLevel.get(), includeOrigin);
             }
-            conn.close();
         } catch (IOException | SQLException e) {
             e.printStackTrace();
         }
@@ -0,0 +1,190 @@
+package com.lingea.documentstorage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.lingea.documentstorage.database.DocumentRecord;
+import com.lingea.documentstorage.exception.RecordAlreadyExistsException;
+
+/**
+ * Single writer thread behind {@link DocumentStorage#saveDocumentAsync}.
+ * Save requests are queued and the writer drains them in batches, each batch is saved in one transaction,
+ * so it costs a single commit instead of several per document. A batch is closed once it is full or once
+ * the linger time since its first request has passed. A batch which cannot be committed because the
+ * database is busy is retried as a whole, a request failing for another reason fails only its own future.
+ */
+class DocumentWriter implements Closeable {
+    private static final int MAX_ATTEMPTS = 5;
+    private static final int SQLITE_BUSY = 5;
+    private static final int SQLITE_LOCKED = 6;
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    /** Document waiting to be saved. */
+    static class Request {
+        final String checksum;
+        final byte[] bytes;
+        final String indexerId;
+        final String path;
+        final String meta;
+        final String contentType;
+        final long lastChangeTime;
+        final boolean saveBinary;
+        final Clock clock;
+        final CompletableFuture<DocumentRecord> future = new CompletableFuture<>();
+
+        Request(String checksum, byte[] bytes, String indexerId, String path, String meta, String contentType,
+                long lastChangeTime, boolean saveBinary, Clock clock) {
+            this.checksum = checksum;
+            this.bytes = bytes;
+            this.indexerId = indexerId;
+            this.path = path;
+            this.meta = meta;
+            this.contentType = contentType;
+            this.lastChangeTime = lastChangeTime;
+            this.saveBinary = saveBinary;
+            this.clock = clock;
+        }
+    }
+
+    private final DocumentStorage documentStorage;
+    private final int batchSize;
+    private final long lingerNanos;
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private volatile boolean closed;
+
+    DocumentWriter(DocumentStorage documentStorage, int batchSize, long lingerMillis) {
+        this.documentStorage = documentStorage;
+        this.batchSize = batchSize;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.thread = new Thread(this::run, "document-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /** Queues the request, its future is completed once the batch containing it has been committed. */
+    synchronized CompletableFuture<DocumentRecord> submit(Request request) {
+        if (closed) {
+            request.future.completeExceptionally(new IllegalStateException("The document writer has been closed"));
+        } else {
+            queue.add(request);
+        }
+        return request.future;
+    }
+
+    /** Saves the requests queued so far and stops the writer thread. */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the document writer", e);
+        }
+    }
+
+    private void run() {
+        List<Request> batch = new ArrayList<>(batchSize);
+        while (true) {
+            try {
+                Request first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (closed && queue.isEmpty()) {
+                        return;
+                    }
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < batchSize) {
+                    Request next = queue.poll();
+                    if (next == null) {
+                        long wait = deadline - System.nanoTime();
+                        if (wait <= 0 || closed) {
+                            break;
+                        }
+                        next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // nobody else interrupts the writer, the queued requests are still saved
+            }
+
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    /** Saves the batch in one transaction, retrying it as a whole while the database is busy. */
+    private void write(List<Request> batch) {
+        Exception lastError = null;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            DocumentRecord[] records = new DocumentRecord[batch.size()];
+            Exception[] errors = new Exception[batch.size()];
+            try (Connection conn = documentStorage.getConnection()) {
+                conn.setAutoCommit(false);
+                for (int i = 0; i < batch.size(); i++) {
+                    Savepoint savepoint = conn.setSavepoint();
+                    try {
+                        records[i] = documentStorage.saveInTransaction(conn, batch.get(i));
+                        conn.releaseSavepoint(savepoint);
+                    } catch (SQLException e) {
+                        if (isBusy(e)) {
+                            throw e;
+                        }
+                        conn.rollback(savepoint);
+                        errors[i] = e;
+                    } catch (IOException | RuntimeException e) {
+                        conn.rollback(savepoint);
+                        errors[i] = e;
+                    }
+                }
+                documentStorage.forceStorages();
+                conn.commit();
+            } catch (SQLException | IOException | RecordAlreadyExistsException e) {
+                // the record has been created by another connection since the transaction has started,
+                // or the database is busy, a new transaction sees the current state
+                lastError = e;
+                continue;
+            } catch (RuntimeException e) {
+                lastError = e;
+                break;
+            }
+
+            for (int i = 0; i < batch.size(); i++) {
+                if (errors[i] == null) {
+                    documentStorage.publishUrls(records[i]);
+                    batch.get(i).future.complete(records[i]);
+                } else {
+                    batch.get(i).future.completeExceptionally(errors[i]);
+                }
+            }
+            return;
+        }
+
+        for (Request request : batch) {
+            request.future.completeExceptionally(lastError);
+        }
+    }
+
+    private static boolean isBusy(SQLException e) {
+        return e.getErrorCode() == SQLITE_BUSY || e.getErrorCode() == SQLITE_LOCKED;
+    }
+}
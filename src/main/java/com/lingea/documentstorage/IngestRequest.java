@@ -0,0 +1,18 @@
+package com.lingea.documentstorage;
+
+import java.util.List;
+
+/** Document with its paragraphs and sentences to be saved by {@link DocumentStorage#ingest(List)}. */
+public class IngestRequest {
+    public DocumentMeta doc;
+    public byte[] bytes;
+    public String[] paragraphs;
+    public List<List<String>> sentences;
+
+    public IngestRequest(DocumentMeta doc, byte[] bytes, String[] paragraphs, List<List<String>> sentences) {
+        this.doc = doc;
+        this.bytes = bytes;
+        this.paragraphs = paragraphs;
+        this.sentences = sentences;
+    }
+}
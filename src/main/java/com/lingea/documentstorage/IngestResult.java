@@ -0,0 +1,35 @@
+package com.lingea.documentstorage;
+
+import java.util.List;
+
+import com.lingea.documentstorage.database.DocumentRecord;
+import com.lingea.documentstorage.database.ParagraphRecord;
+import com.lingea.documentstorage.database.SentenceRecord;
+
+/**
+ * Ids of a document saved by {@link DocumentStorage#ingest}, its paragraphs in the order of the document
+ * and the sentences of every paragraph. Records saved by the call are marked as created.
+ */
+public class IngestResult {
+    private final DocumentRecord document;
+    private final ParagraphRecord[] paragraphs;
+    private final List<List<SentenceRecord>> sentences;
+
+    IngestResult(DocumentRecord document, ParagraphRecord[] paragraphs, List<List<SentenceRecord>> sentences) {
+        this.document = document;
+        this.paragraphs = paragraphs;
+        this.sentences = sentences;
+    }
+
+    public DocumentRecord getDocument() {
+        return this.document;
+    }
+
+    public ParagraphRecord[] getParagraphs() {
+        return this.paragraphs;
+    }
+
+    public List<List<SentenceRecord>> getSentences() {
+        return this.sentences;
+    }
+}
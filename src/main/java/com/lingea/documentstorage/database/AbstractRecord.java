@@ -7,33 +7,59 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
+
+import com.lingea.documentstorage.exception.RecordNotFoundException;
+import com.lingea.documentstorage.recording.Digest;
 
 public abstract class AbstractRecord {
     // This is only for SQL
     private final String type;
 
     private final int id;
-    private final String hash;
+    private final Digest digest;
+    private final boolean created;
 
     protected AbstractRecord(String type, int id, String hash) {
+        this(type, id, hash, false);
+    }
+
+    protected AbstractRecord(String type, int id, String hash, boolean created) {
+        this(type, id, hash == null ? null : Digest.fromHex(hash), created);
+    }
+
+    protected AbstractRecord(String type, int id, Digest digest, boolean created) {
         this.type = type;
         this.id = id;
-        this.hash = hash;
+        this.digest = digest;
+        this.created = created;
     }
 
     public int getId() {
         return this.id;
     }
 
+    /** Returns the hex string of the hash, it is created from the digest on every call. */
     public String getHash() {
-        return this.hash;
+        return this.digest == null ? null : this.digest.toHex();
+    }
+
+    public Digest getDigest() {
+        return this.digest;
     }
 
     protected String getType() {
         return this.type;
     }
 
+    /** True if the record has been inserted by the call which returned it, so its binary has to be saved. */
+    public boolean isCreated() {
+        return this.created;
+    }
+
     public void delete(Connection conn) throws SQLException, IOException {
         delete(this.type, conn, this.getId());
     }
@@ -50,10 +76,141 @@ public abstract class AbstractRecord {
         String sql = "DELETE FROM " + type + " WHERE hash = (?)";
 
         PreparedStatement stmt = conn.prepareStatement(sql);
-        stmt.setString(1, hash);
+        stmt.setBytes(1, toBlob(hash));
         stmt.executeUpdate();
     }
 
+    /**
+     * Converts the hex hash to the digest bytes stored in the hash column.
+     * @throws IllegalArgumentException if the hash is not a hex string
+     */
+    protected static byte[] toBlob(String hash) {
+        return Digest.parseHex(hash);
+    }
+
+    /**
+     * Converts the looked up hex hash to the digest bytes, a hash which is not a hex string cannot be stored
+     * so no record of the given type has it.
+     * @throws RecordNotFoundException if the hash is not a hex string
+     */
+    protected static byte[] toLookupBlob(String type, String hash) throws RecordNotFoundException {
+        try {
+            return toBlob(hash);
+        } catch (IllegalArgumentException e) {
+            throw new RecordNotFoundException(type + " with hash " + hash + " not found");
+        }
+    }
+
+    /** Converts the digest bytes of the hash column to the hex hash. */
+    protected static String fromBlob(byte[] blob) {
+        return blob == null ? null : Digest.toHex(blob);
+    }
+
+    /**
+     * Returns the id of the hash from the map of resolved ids, the ids read back from a table are keyed
+     * by the lower case hex hash, so the hash is looked up in that form too.
+     * @throws SQLException if the hash has been neither inserted nor found
+     */
+    protected static int getResolvedId(Map<String, Integer> ids, String type, String hash) throws SQLException {
+        Integer id = ids.get(hash);
+        if (id == null) {
+            id = ids.get(fromBlob(toBlob(hash)));
+        }
+        if (id == null) {
+            throw new SQLException(type + " " + hash + " has been neither inserted nor found");
+        }
+        return id;
+    }
+
+    /**
+     * Inserts the hash into the table of the given type unless it is there already.
+     * @return - id of the inserted row, 0 if the hash has already been there
+     */
+    protected static int insertIfAbsent(StatementCache statements, String type, String hash) throws SQLException {
+        return insertIfAbsent(statements, type, toBlob(hash));
+    }
+
+    /**
+     * Inserts the digest into the table of the given type unless it is there already.
+     * @return - id of the inserted row, 0 if the digest has already been there
+     */
+    protected static int insertIfAbsent(StatementCache statements, String type, byte[] digest) throws SQLException {
+        PreparedStatement stmt = statements.prepareInsert("INSERT OR IGNORE INTO " + type + " (hash) VALUES (?)");
+        stmt.setBytes(1, digest);
+        if (stmt.executeUpdate() == 0) {
+            return 0;
+        }
+        try (ResultSet rs = stmt.getGeneratedKeys()) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    /**
+     * Looks up the id of the hash in the table of the given type.
+     * @return - id of the row, 0 if there is no row with the hash
+     */
+    protected static int getIdByHash(StatementCache statements, String type, String hash) throws SQLException {
+        return getIdByHash(statements, type, toBlob(hash));
+    }
+
+    /**
+     * Looks up the id of the digest in the table of the given type.
+     * @return - id of the row, 0 if there is no row with the digest
+     */
+    protected static int getIdByHash(StatementCache statements, String type, byte[] digest) throws SQLException {
+        PreparedStatement stmt = statements.prepare("SELECT id FROM " + type + " WHERE hash = ?");
+        stmt.setBytes(1, digest);
+        try (ResultSet rs = stmt.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Inserts the hashes which are believed to be new without checking whether they exist first,
+     * a hash inserted by another connection in the meantime is ignored.
+     * @return - map from the inserted hashes to their new ids, ignored hashes are missing in it
+     */
+    protected static Map<String, Integer> insertNew(Connection conn, String type, List<String> hashes)
+            throws SQLException {
+        Map<String, Integer> ids = new HashMap<>();
+        String sql = "INSERT OR IGNORE INTO " + type + " (hash) VALUES (?)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            for (String hash : hashes) {
+                stmt.setBytes(1, toBlob(hash));
+                if (stmt.executeUpdate() == 0) {
+                    continue;
+                }
+                try (ResultSet rs = stmt.getGeneratedKeys()) {
+                    rs.next();
+                    ids.put(hash, rs.getInt(1));
+                }
+            }
+        }
+        return ids;
+    }
+
+    /** Visits the hashes of the rows of the table of the given type with an id above afterId. */
+    public static void forEachHash(Connection conn, String type, long afterId, Consumer<String> visitor)
+            throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT hash FROM " + type + " WHERE id > ?")) {
+            stmt.setLong(1, afterId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    visitor.accept(fromBlob(rs.getBytes(1)));
+                }
+            }
+        }
+    }
+
+    /** Returns the highest id in the table of the given type, 0 for an empty table. */
+    public static int getMaxId(Connection conn, String type) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT max(id) FROM " + type)) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
     public static String getSelectQuery(String what, String from, String field, AbstractRecord[] records,
             Map<Integer, Integer> ids) {
         StringBuilder builder = new StringBuilder("SELECT ");
@@ -78,7 +235,7 @@ public abstract class AbstractRecord {
             String idName) throws SQLException {
         try (PreparedStatement statement = conn.prepareStatement(query)) {
             for (int i = 0; i < records.length; i++) {
-                statement.setString(i + 1, records[i].getHash());
+                statement.setBytes(i + 1, records[i].getDigest().toBytes());
             }
             try (ResultSet resultSet = statement.executeQuery()) {
                 while (resultSet.next()) {
@@ -0,0 +1,267 @@
+package com.lingea.documentstorage.database;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.lingea.documentstorage.recording.DigestArray;
+
+/**
+ * Scalable Bloom filter of the hashes stored in the table of a level, telling the hashes which are certainly new
+ * from the ones which may exist already. Once a layer is full a new layer of twice the capacity and half
+ * the false positive rate is added, so the filter grows with the table while its false positive rate stays bounded.
+ * Bits are set atomically and hashes are added before they are inserted, so the filter is safe to use from
+ * concurrent writers. A negative answer is a hint only, inserts of certainly new hashes still ignore duplicates,
+ * because another connection may have committed the hash in the meantime.
+ * The filter is saved into a snapshot together with the highest id it covers, rows added later are
+ * read from the database when the snapshot is loaded.
+ */
+public class BloomFilter {
+    private static final int MAGIC = 0x44534246;
+    private static final int VERSION = 1;
+    private static final int MAX_HASHES = 16;
+    private static final double TIGHTENING_RATIO = 0.5;
+
+    /** Fixed size part of the filter. */
+    private static class Layer {
+        final long capacity;
+        final int hashes;
+        final long bitMask;
+        final AtomicLongArray words;
+        final AtomicLong count;
+
+        Layer(long capacity, double falsePositiveRate) {
+            // optimal number of bits m = -n ln(p) / ln(2)^2, rounded up to a power of two for masking
+            double bits = -capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+            long numBits = Long.highestOneBit(Math.max(64, (long) Math.ceil(bits)) - 1) << 1;
+            this.capacity = capacity;
+            this.hashes = (int) Math.max(1, Math.min(MAX_HASHES, Math.round((double) numBits / capacity * Math.log(2))));
+            this.bitMask = numBits - 1;
+            this.words = new AtomicLongArray((int) (numBits >>> 6));
+            this.count = new AtomicLong();
+        }
+
+        Layer(long capacity, int hashes, long count, long[] words) {
+            this.capacity = capacity;
+            this.hashes = hashes;
+            this.bitMask = ((long) words.length << 6) - 1;
+            this.words = new AtomicLongArray(words);
+            this.count = new AtomicLong(count);
+        }
+
+        boolean mightContain(long h1, long h2) {
+            for (int i = 0; i < hashes; i++) {
+                long bit = (h1 + i * h2) & bitMask;
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void add(long h1, long h2) {
+            for (int i = 0; i < hashes; i++) {
+                long bit = (h1 + i * h2) & bitMask;
+                int index = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long word = words.get(index);
+                while ((word & mask) == 0 && !words.compareAndSet(index, word, word | mask)) {
+                    word = words.get(index);
+                }
+            }
+        }
+    }
+
+    private final double falsePositiveRate;
+    private volatile Layer[] layers;
+
+    /**
+     * @param capacity - number of hashes of the first layer
+     * @param falsePositiveRate - false positive rate of the first layer, e.g. 0.01
+     */
+    public BloomFilter(long capacity, double falsePositiveRate) {
+        if (capacity < 1 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Invalid Bloom filter capacity or false positive rate");
+        }
+        this.falsePositiveRate = falsePositiveRate;
+        this.layers = new Layer[] { new Layer(capacity, falsePositiveRate) };
+    }
+
+    private BloomFilter(double falsePositiveRate, Layer[] layers) {
+        this.falsePositiveRate = falsePositiveRate;
+        this.layers = layers;
+    }
+
+    /** Returns false if the hash has certainly not been added, true if it may have been. */
+    public boolean mightContain(String hash) {
+        return mightContain(HashIdCache.keyHigh(hash), HashIdCache.keyLow(hash) | 1);
+    }
+
+    /** Returns false if the i-th digest of the array has certainly not been added, true if it may have been. */
+    public boolean mightContain(DigestArray digests, int i) {
+        if (digests.getDigestLength() < 16) {
+            return mightContain(digests.getHex(i));
+        }
+        return mightContain(digests.getHigh(i), digests.getLow(i) | 1);
+    }
+
+    private boolean mightContain(long h1, long h2) {
+        for (Layer layer : layers) {
+            if (layer.mightContain(h1, h2)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Adds the hash, which must be done before the hash is inserted into the database. */
+    public void add(String hash) {
+        add(HashIdCache.keyHigh(hash), HashIdCache.keyLow(hash) | 1);
+    }
+
+    /** Adds the i-th digest of the array, which must be done before the digest is inserted into the database. */
+    public void add(DigestArray digests, int i) {
+        if (digests.getDigestLength() < 16) {
+            add(digests.getHex(i));
+        } else {
+            add(digests.getHigh(i), digests.getLow(i) | 1);
+        }
+    }
+
+    private void add(long h1, long h2) {
+        Layer[] current = layers;
+        for (Layer layer : current) {
+            if (layer.mightContain(h1, h2)) {
+                return;
+            }
+        }
+        Layer last = current[current.length - 1];
+        last.add(h1, h2);
+        if (last.count.incrementAndGet() >= last.capacity) {
+            grow(last);
+        }
+    }
+
+    private synchronized void grow(Layer full) {
+        Layer[] current = layers;
+        if (current[current.length - 1] != full) {
+            return;
+        }
+        double rate = falsePositiveRate * Math.pow(TIGHTENING_RATIO, current.length);
+        Layer[] grown = new Layer[current.length + 1];
+        System.arraycopy(current, 0, grown, 0, current.length);
+        grown[current.length] = new Layer(full.capacity * 2, rate);
+        layers = grown;
+    }
+
+    /** Returns the number of hashes added, hashes added concurrently may be counted twice. */
+    public long getCount() {
+        long count = 0;
+        for (Layer layer : layers) {
+            count += layer.count.get();
+        }
+        return count;
+    }
+
+    /** Returns the memory taken by the bits of all layers. */
+    public long getByteSize() {
+        long bytes = 0;
+        for (Layer layer : layers) {
+            bytes += (long) layer.words.length() * Long.BYTES;
+        }
+        return bytes;
+    }
+
+    /**
+     * Saves the snapshot of the filter, the file is replaced only once the snapshot has been written completely.
+     * @param maxId - highest id of the table whose hash has been added to the filter
+     */
+    public void save(String path, long maxId) throws IOException {
+        Path target = Paths.get(path);
+        Path temp = Paths.get(path + ".tmp");
+        Layer[] current = layers;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(maxId);
+            out.writeDouble(falsePositiveRate);
+            out.writeInt(current.length);
+            for (Layer layer : current) {
+                out.writeLong(layer.capacity);
+                out.writeInt(layer.hashes);
+                out.writeLong(layer.count.get());
+                out.writeInt(layer.words.length());
+                for (int i = 0; i < layer.words.length(); i++) {
+                    out.writeLong(layer.words.get(i));
+                }
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Snapshot of a filter together with the highest id it covers. */
+    public static class Snapshot {
+        private final BloomFilter filter;
+        private final long maxId;
+
+        Snapshot(BloomFilter filter, long maxId) {
+            this.filter = filter;
+            this.maxId = maxId;
+        }
+
+        public BloomFilter getFilter() {
+            return this.filter;
+        }
+
+        public long getMaxId() {
+            return this.maxId;
+        }
+    }
+
+    /**
+     * Loads the snapshot saved by {@link #save}.
+     * @return - the snapshot, null if the file does not exist or is not a valid snapshot
+     */
+    public static Snapshot load(String path) {
+        Path source = Paths.get(path);
+        if (!Files.exists(source)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(source)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            long maxId = in.readLong();
+            double falsePositiveRate = in.readDouble();
+            Layer[] layers = new Layer[in.readInt()];
+            for (int i = 0; i < layers.length; i++) {
+                long capacity = in.readLong();
+                int hashes = in.readInt();
+                long count = in.readLong();
+                long[] words = new long[in.readInt()];
+                if (Integer.bitCount(words.length) != 1) {
+                    return null;
+                }
+                for (int j = 0; j < words.length; j++) {
+                    words[j] = in.readLong();
+                }
+                layers[i] = new Layer(capacity, hashes, count, words);
+            }
+            if (layers.length == 0) {
+                return null;
+            }
+            return new Snapshot(new BloomFilter(falsePositiveRate, layers), maxId);
+        } catch (IOException | RuntimeException e) {
+            // a truncated or damaged snapshot is rebuilt from the database
+            return null;
+        }
+    }
+}
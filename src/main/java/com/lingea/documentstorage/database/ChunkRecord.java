@@ -0,0 +1,67 @@
+package com.lingea.documentstorage.database;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Chunk of a document stored in the chunked storage mode, chunks are deduplicated by their hash.
+ */
+public class ChunkRecord extends AbstractRecord {
+    private static final String TYPE = "Chunk";
+
+    private ChunkRecord(int id, String hash, boolean created) {
+        super(TYPE, id, hash, created);
+    }
+
+    /**
+     * Method for inserting the chunks of a document at once.
+     * Returns an array of chunk records of the same size as the hashes input array,
+     * only the first record of every newly inserted hash is marked as created.
+     */
+    public static ChunkRecord[] createMany(Connection conn, String[] hashes) throws SQLException, IOException {
+        int[] inserted = insertMany(conn, hashes);
+
+        Map<String, Integer> resultMap = getUniqueHashes(conn, hashes); // result map = hash -> id
+
+        ChunkRecord[] result = new ChunkRecord[hashes.length];
+        for (int i = 0; i < hashes.length; i++) {
+            Integer id = resultMap.get(hashes[i]);
+            if (id == null) {
+                throw new SQLException("Chunk " + hashes[i] + " has not been inserted");
+            }
+            result[i] = new ChunkRecord(id, hashes[i], inserted[i] > 0);
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the ids of the chunks stored already.
+     * @return - map from the hex hashes to the chunk ids, hashes of no chunk are missing in it
+     */
+    public static Map<String, Integer> getIds(Connection conn, String[] hashes) throws SQLException {
+        return getUniqueHashes(conn, hashes);
+    }
+
+    private static int[] insertMany(Connection conn, String[] hashes) throws SQLException {
+        String sql = "INSERT INTO Chunk (hash) SELECT ? WHERE NOT EXISTS " +
+                "(SELECT hash FROM Chunk WHERE hash = ?)";
+
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < hashes.length; i++) {
+                stmt.setBytes(1, toBlob(hashes[i]));
+                stmt.setBytes(2, toBlob(hashes[i]));
+                stmt.addBatch();
+            }
+            return stmt.executeBatch();
+        }
+    }
+
+    private static Map<String, Integer> getUniqueHashes(Connection conn, String[] hashes) throws SQLException {
+        return StagingTable.resolveIds(conn, TYPE, Arrays.asList(hashes));
+    }
+}
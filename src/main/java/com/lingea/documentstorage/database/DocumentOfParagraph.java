@@ -8,6 +8,9 @@ import java.sql.SQLException;
 import java.sql.Statement;
 
 public class DocumentOfParagraph {
+    private static final String INSERT_MANY_SQL =
+            "INSERT OR IGNORE INTO DocumentOfParagraph (document, paragraph, position) VALUES (?, ?, ?)";
+
     private final int documentId;
     private final int paragraphId;
     private final int position;
@@ -56,9 +59,7 @@ public class DocumentOfParagraph {
     public static void createMany(Connection conn, int docId, ParagraphRecord[] paragraphRecords)
             throws IOException, SQLException {
 
-        String sql = "INSERT OR IGNORE INTO DocumentOfParagraph (document, paragraph, position) VALUES (?, ?, ?)";
-
-        PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+        PreparedStatement stmt = conn.prepareStatement(INSERT_MANY_SQL, Statement.RETURN_GENERATED_KEYS);
 
         for (int i = 0; i < paragraphRecords.length; i++) {
             Integer parId = paragraphRecords[i].getId();
@@ -74,4 +75,17 @@ public class DocumentOfParagraph {
             e.printStackTrace();
         }
     }
+
+    /** Inserts the paragraphs of the document with a cached statement, failures are passed to the caller. */
+    public static void createMany(StatementCache statements, int docId, ParagraphRecord[] paragraphRecords)
+            throws SQLException {
+        PreparedStatement stmt = statements.prepare(INSERT_MANY_SQL);
+        for (int i = 0; i < paragraphRecords.length; i++) {
+            stmt.setInt(1, docId);
+            stmt.setInt(2, paragraphRecords[i].getId());
+            stmt.setInt(3, i);
+            stmt.addBatch();
+        }
+        stmt.executeBatch();
+    }
 }
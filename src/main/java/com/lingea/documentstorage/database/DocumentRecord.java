@@ -13,12 +13,25 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 public class DocumentRecord extends AbstractRecord {
     private static final String TYPE = "Document";
+    /** Occurrence of the url at or before the time, a backward seek in the (url, time) index. */
+    private static final String CLOSEST_BEFORE_SQL = "SELECT D.id, D.hash, O.time, O.indexerId, U.url, U.id FROM Url U\n" +
+            "JOIN Occurrence O ON O.url = U.id\n" +
+            "JOIN Document D ON D.id = O.document\n" +
+            "WHERE U.url = ? AND O.time <= ? ORDER BY O.time DESC LIMIT 1";
+    /** Occurrence of the url at or after the time, a forward seek in the (url, time) index. */
+    private static final String CLOSEST_AFTER_SQL = "SELECT D.id, D.hash, O.time, O.indexerId, U.url, U.id FROM Url U\n" +
+            "JOIN Occurrence O ON O.url = U.id\n" +
+            "JOIN Document D ON D.id = O.document\n" +
+            "WHERE U.url = ? AND O.time >= ? ORDER BY O.time LIMIT 1";
     private final List<OccurrenceRecord> occurrences;
 
     private DocumentRecord(int id, String hash, List<OccurrenceRecord> occurrences) {
@@ -30,6 +43,28 @@ public class DocumentRecord extends AbstractRecord {
         this(id, hash, new ArrayList<OccurrenceRecord>());
     }
 
+    private DocumentRecord(int id, String hash, boolean created) {
+        super(TYPE, id, hash, created);
+        this.occurrences = new ArrayList<>();
+    }
+
+    /**
+     * Inserts the document into the Document table unless it is there already, meant to be called
+     * inside a transaction. The occurrences of an existing document are not loaded.
+     * @param statements statements of the connection
+     * @param hash document hash
+     * @return document record, marked as created if the document has just been inserted
+     * @throws SQLException
+     */
+    public static DocumentRecord createIfAbsent(StatementCache statements, String hash) throws SQLException {
+        int id = insertIfAbsent(statements, TYPE, hash);
+        boolean created = id != 0;
+        if (!created) {
+            id = getIdByHash(statements, TYPE, hash);
+        }
+        return new DocumentRecord(id, hash, created);
+    }
+
     /**
      * Creates new Document Record in Document table
      * @param conn connection
@@ -42,7 +77,7 @@ public class DocumentRecord extends AbstractRecord {
     public static DocumentRecord create(Connection conn, String hash) throws SQLException, RecordAlreadyExistsException {
         String sql = "INSERT INTO Document (hash) VALUES (?)";
         PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
-        stmt.setString(1, hash);
+        stmt.setBytes(1, toBlob(hash));
 
         try {
             stmt.executeUpdate();
@@ -96,8 +131,9 @@ public class DocumentRecord extends AbstractRecord {
                     "LEFT JOIN Url U ON U.id = O.url\n" +
                     "WHERE hash = ?";
 
+        byte[] digest = toLookupBlob(TYPE, hash);
         PreparedStatement stmt = conn.prepareStatement(sql);
-        stmt.setString(1, hash);
+        stmt.setBytes(1, digest);
 
         return genericGetDocumentRecord(conn, stmt);
     }
@@ -122,56 +158,160 @@ public class DocumentRecord extends AbstractRecord {
         return genericGetDocumentRecord(conn, stmt);
     }
 
+    /**
+     * Returns the document of the occurrence of the url nearest to the timestamp. The nearest occurrence
+     * on each side is found by a seek in the (url, time) index and the closer one is taken,
+     * the earlier one if both are equally far.
+     */
     public static DocumentRecord getClosestByUrl(Connection conn, String url, long timestamp) 
             throws IOException, SQLException, RecordNotFoundException {
 
-        String sql = "SELECT D.id, D.hash, O.time, O.indexerId, U.url, U.id FROM Occurrence O\n" +
-                "LEFT JOIN Url U ON U.id = O.url\n" + 
-                "LEFT JOIN Document D ON D.id = O.document\n" +
-                "WHERE U.url = ? ORDER BY abs(? - time)\n" +
-                "LIMIT 1";
+        String sql = "SELECT * FROM (\n" +
+                "SELECT * FROM (" + CLOSEST_BEFORE_SQL + ")\n" +
+                "UNION ALL\n" +
+                "SELECT * FROM (" + CLOSEST_AFTER_SQL + ")\n" +
+                ") ORDER BY abs(? - time), time LIMIT 1";
 
         PreparedStatement stmt = conn.prepareStatement(sql);
         stmt.setString(1, url);
         stmt.setLong(2, timestamp);
+        stmt.setString(3, url);
+        stmt.setLong(4, timestamp);
+        stmt.setLong(5, timestamp);
 
         return genericGetDocumentRecord(conn, stmt);
     }
 
+    /** Returns the document of the latest occurrence of the url at or before the timestamp. */
     public static DocumentRecord getClosestBefore(Connection conn, String url, long timestamp) 
             throws IOException, SQLException, RecordNotFoundException {
 
-        String sql = "SELECT D.id, D.hash, O.time, O.indexerId, U.url, U.id FROM Occurrence O\n" +
-                "LEFT JOIN Url U ON U.id = O.url\n" + 
-                "LEFT JOIN Document D ON D.id = O.document\n" +
-                "WHERE U.url = ? AND O.time <= ? ORDER BY abs(? - time)\n" +
-                "LIMIT 1";
-
-        PreparedStatement stmt = conn.prepareStatement(sql);
+        PreparedStatement stmt = conn.prepareStatement(CLOSEST_BEFORE_SQL);
         stmt.setString(1, url);
         stmt.setLong(2, timestamp);
-        stmt.setLong(3, timestamp);
 
         return genericGetDocumentRecord(conn, stmt);
     }
 
+    /** Returns the document of the earliest occurrence of the url at or after the timestamp. */
     public static DocumentRecord getClosestAfter(Connection conn, String url, long timestamp) 
             throws IOException, SQLException, RecordNotFoundException {
 
-        String sql = "SELECT D.id, D.hash, O.time, O.indexerId, U.url, U.id FROM Occurrence O\n" +
-                "LEFT JOIN Url U ON U.id = O.url\n" + 
-                "LEFT JOIN Document D ON D.id = O.document\n" +
-                "WHERE U.url = ? AND O.time >= ? ORDER BY abs(? - time)\n" +
-                "LIMIT 1";
-
-        PreparedStatement stmt = conn.prepareStatement(sql);
+        PreparedStatement stmt = conn.prepareStatement(CLOSEST_AFTER_SQL);
         stmt.setString(1, url);
         stmt.setLong(2, timestamp);
-        stmt.setLong(3, timestamp);
 
         return genericGetDocumentRecord(conn, stmt);
     }
 
+    /**
+     * Returns the versions of the url in time order, every version is a document record with the single
+     * occurrence. The page starts right after the cursor, which is a position in the (url, time) index,
+     * so every page costs the same however far in the timeline it is.
+     * @param after - cursor returned with the previous page, null for the first page
+     * @param limit - maximal number of versions of the page
+     */
+    public static TimelinePage getTimeline(Connection conn, String url, TimelinePage.Cursor after, int limit)
+            throws SQLException {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Invalid timeline page size " + limit);
+        }
+        String sql = "SELECT D.id, D.hash, O.time, O.indexerId, U.url, U.id, O.rowid FROM Url U\n" +
+                "JOIN Occurrence O ON O.url = U.id\n" +
+                "JOIN Document D ON D.id = O.document\n" +
+                "WHERE U.url = ? AND (O.time, O.rowid) > (?, ?)\n" +
+                "ORDER BY O.time, O.rowid LIMIT ?";
+
+        List<DocumentRecord> versions = new ArrayList<>();
+        TimelinePage.Cursor next = null;
+        long lastTime = 0;
+        long lastRowId = 0;
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, url);
+            stmt.setLong(2, after == null ? Long.MIN_VALUE : after.getTime());
+            stmt.setLong(3, after == null ? Long.MIN_VALUE : after.getRowId());
+            // one more row tells whether there is a next page
+            stmt.setInt(4, limit + 1);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    if (versions.size() == limit) {
+                        next = new TimelinePage.Cursor(lastTime, lastRowId);
+                        break;
+                    }
+                    lastTime = rs.getLong(3);
+                    lastRowId = rs.getLong(7);
+                    Url realUrl = new Url(rs.getInt(6), rs.getString(5));
+                    List<OccurrenceRecord> occurs = new ArrayList<>(1);
+                    occurs.add(new OccurrenceRecord(rs.getInt(1), realUrl, rs.getString(4), lastTime));
+                    versions.add(new DocumentRecord(rs.getInt(1), fromBlob(rs.getBytes(2)), occurs));
+                }
+            }
+        }
+        return new TimelinePage(versions, next);
+    }
+
+    /**
+     * Returns the documents of the hashes with their occurrences, looked up with a single join
+     * of the staged hashes.
+     * @return - map from the hex hashes to the documents, hashes of no document are missing in it
+     */
+    public static Map<String, DocumentRecord> getByHashes(Connection conn, Collection<String> hashes)
+            throws SQLException {
+        try (StagingTable staging = new StagingTable(conn)) {
+            staging.addHashes(hashes);
+            Map<String, DocumentRecord> records = new LinkedHashMap<>();
+            for (DocumentRecord record : getStaged(conn, "hash").values()) {
+                records.put(record.getHash(), record);
+            }
+            return records;
+        }
+    }
+
+    /**
+     * Returns the documents of the ids with their occurrences, looked up with a single join of the staged ids.
+     * @return - map from the ids to the documents, ids of no document are missing in it
+     */
+    public static Map<Integer, DocumentRecord> getByIds(Connection conn, int[] ids) throws SQLException {
+        try (StagingTable staging = new StagingTable(conn)) {
+            staging.addIds(ids);
+            return getStaged(conn, "id");
+        }
+    }
+
+    /**
+     * Joins the staged values to the documents by the given column. The rows of a document usually come
+     * one after another, but the query has no order, so a document seen before is looked up in the map.
+     */
+    private static Map<Integer, DocumentRecord> getStaged(Connection conn, String column) throws SQLException {
+        String sql = "SELECT D.id, D.hash, O.time, O.indexerId, U.url, U.id FROM " + StagingTable.TABLE + " S\n" +
+                "CROSS JOIN Document D ON D." + column + " = S.value\n" +
+                "LEFT JOIN Occurrence O ON D.id = O.document\n" +
+                "LEFT JOIN Url U ON U.id = O.url";
+
+        Map<Integer, DocumentRecord> records = new LinkedHashMap<>();
+        try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+            DocumentRecord record = null;
+            while (rs.next()) {
+                int documentId = rs.getInt(1);
+                if (record == null || record.getId() != documentId) {
+                    record = records.get(documentId);
+                    if (record == null) {
+                        record = new DocumentRecord(documentId, fromBlob(rs.getBytes(2)));
+                        records.put(documentId, record);
+                    }
+                }
+                record.addOccurrence(readOccurrence(rs, documentId));
+            }
+        }
+        return records;
+    }
+
+    /** Reads the occurrence of the row of a query starting like the one of {@link #genericGetDocumentRecord}. */
+    private static OccurrenceRecord readOccurrence(ResultSet rs, int documentId) throws SQLException {
+        Url realUrl = new Url(rs.getInt(6), rs.getString(5));
+        return new OccurrenceRecord(documentId, realUrl, rs.getString(4), rs.getLong(3));
+    }
+
     /**
      * Generates single document record returned by executing sql with arguments  
      * First part of the query should always look like this:  
@@ -197,19 +337,10 @@ public class DocumentRecord extends AbstractRecord {
 
         // Document
         int documentId = rs.getInt(1);
-        String documentHash = rs.getString(2);
+        String documentHash = fromBlob(rs.getBytes(2));
         List<OccurrenceRecord> occurs = new ArrayList<>();
         do {
-            // Occurance
-            long time = rs.getLong(3);
-            String indexer = rs.getString(4);
-
-            // Url
-            String url = rs.getString(5);
-            int urlId = rs.getInt(6);
-
-            Url realUrl = new Url(urlId, url);
-            occurs.add(new OccurrenceRecord(documentId, realUrl, indexer, time));
+            occurs.add(readOccurrence(rs, documentId));
         } while (rs.next());
 
         stmt.close();
@@ -220,7 +351,7 @@ public class DocumentRecord extends AbstractRecord {
         String sql = "UPDATE Document set hash = ? WHERE id = ?";
 
         PreparedStatement stmt = conn.prepareStatement(sql);
-        stmt.setString(1, hash);
+        stmt.setBytes(1, toBlob(hash));
         stmt.setInt(2, id);
         stmt.executeUpdate();
         stmt.close();
@@ -0,0 +1,244 @@
+package com.lingea.documentstorage.database;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.lingea.documentstorage.recording.DigestArray;
+
+/**
+ * Bounded cache from the hash of a record to its id, consulted before the database when paragraphs
+ * and sentences are deduplicated. The 128 bits of the hash are kept as two longs instead of the hex string.
+ * Entries are stored in sets of {@link #WAYS} slots, every hit raises the frequency of the entry and a full
+ * set evicts its least frequently used entry and halves the frequencies of the others, so entries which
+ * stopped being hit age out. Sets are guarded by striped locks.
+ * Only committed ids may be put into the cache, it assumes records are not deleted while it is in use.
+ */
+public class HashIdCache {
+    /** Number of entries in one set. */
+    public static final int WAYS = 8;
+    /** Memory taken by one entry: two longs of the hash, the id and the frequency. */
+    public static final int ENTRY_BYTES = 8 + 8 + 4 + 1;
+
+    private static final int STRIPES = 64;
+    private static final int MAX_SETS = 1 << 26;
+    private static final byte MAX_FREQUENCY = Byte.MAX_VALUE;
+
+    private final int setMask;
+    private final long[] high;
+    private final long[] low;
+    private final int[] ids;
+    private final byte[] frequencies;
+    private final Object[] locks = new Object[STRIPES];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxBytes - memory the cache may take, rounded down to a power of two number of sets
+     */
+    public HashIdCache(long maxBytes) {
+        long sets = Math.max(1, Math.min(MAX_SETS, maxBytes / ENTRY_BYTES / WAYS));
+        int setCount = Integer.highestOneBit((int) sets);
+        this.setMask = setCount - 1;
+        this.high = new long[setCount * WAYS];
+        this.low = new long[setCount * WAYS];
+        this.ids = new int[setCount * WAYS];
+        this.frequencies = new byte[setCount * WAYS];
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /** Returns the id of the hash, or 0 if the hash is not cached. */
+    public int get(String hash) {
+        if (!isCacheable(hash)) {
+            misses.increment();
+            return 0;
+        }
+        return get(parseHex(hash, 0), parseHex(hash, 16));
+    }
+
+    /** Returns the id of the i-th digest of the array, or 0 if the digest is not cached. */
+    public int get(DigestArray digests, int i) {
+        if (digests.getDigestLength() < 16) {
+            misses.increment();
+            return 0;
+        }
+        return get(digests.getHigh(i), digests.getLow(i));
+    }
+
+    private int get(long hi, long lo) {
+        int set = setOf(hi, lo);
+        int first = set * WAYS;
+        synchronized (locks[set & (STRIPES - 1)]) {
+            for (int i = first; i < first + WAYS; i++) {
+                if (ids[i] != 0 && high[i] == hi && low[i] == lo) {
+                    if (frequencies[i] < MAX_FREQUENCY) {
+                        frequencies[i]++;
+                    }
+                    hits.increment();
+                    return ids[i];
+                }
+            }
+        }
+        misses.increment();
+        return 0;
+    }
+
+    /** Caches the id of the hash, the id must be committed. */
+    public void put(String hash, int id) {
+        if (isCacheable(hash)) {
+            put(parseHex(hash, 0), parseHex(hash, 16), id);
+        }
+    }
+
+    /** Caches the id of the i-th digest of the array, the id must be committed. */
+    public void put(DigestArray digests, int i, int id) {
+        if (digests.getDigestLength() >= 16) {
+            put(digests.getHigh(i), digests.getLow(i), id);
+        }
+    }
+
+    private void put(long hi, long lo, int id) {
+        if (id <= 0) {
+            return;
+        }
+        int set = setOf(hi, lo);
+        int first = set * WAYS;
+        synchronized (locks[set & (STRIPES - 1)]) {
+            int victim = -1;
+            for (int i = first; i < first + WAYS; i++) {
+                if (ids[i] == 0) {
+                    if (victim == -1 || ids[victim] != 0) {
+                        victim = i;
+                    }
+                } else if (high[i] == hi && low[i] == lo) {
+                    ids[i] = id;
+                    return;
+                } else if (victim == -1 || (ids[victim] != 0 && frequencies[i] < frequencies[victim])) {
+                    victim = i;
+                }
+            }
+
+            if (ids[victim] != 0) {
+                evictions.increment();
+                for (int i = first; i < first + WAYS; i++) {
+                    frequencies[i] >>= 1;
+                }
+            }
+            high[victim] = hi;
+            low[victim] = lo;
+            ids[victim] = id;
+            frequencies[victim] = 1;
+        }
+    }
+
+    /** Caches the ids of the committed records. */
+    public void putAll(AbstractRecord[] records) {
+        for (AbstractRecord record : records) {
+            put(record.getHash(), record.getId());
+        }
+    }
+
+    /** Caches the ids of the committed records. */
+    public void putAll(List<? extends AbstractRecord> records) {
+        for (AbstractRecord record : records) {
+            put(record.getHash(), record.getId());
+        }
+    }
+
+    /** Removes all entries, e.g. after records have been deleted. The metrics are kept. */
+    public void clear() {
+        for (int set = 0; set <= setMask; set++) {
+            synchronized (locks[set & (STRIPES - 1)]) {
+                for (int i = set * WAYS; i < (set + 1) * WAYS; i++) {
+                    ids[i] = 0;
+                    frequencies[i] = 0;
+                }
+            }
+        }
+    }
+
+    /** Returns the maximal number of entries. */
+    public int getCapacity() {
+        return ids.length;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /** Returns the share of lookups answered by the cache, 0 if there were no lookups. */
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /** Resets the hit, miss and eviction counters. */
+    public void resetStats() {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("HashIdCache(capacity=%d, hits=%d, misses=%d, evictions=%d, hitRate=%.3f)",
+                getCapacity(), getHits(), getMisses(), getEvictions(), getHitRate());
+    }
+
+    private int setOf(long hi, long lo) {
+        // the hash is uniformly distributed already, mixing the halves guards against a weak algorithm
+        long mixed = (hi ^ lo) * 0x9E3779B97F4A7C15L;
+        return (int) (mixed >>> 32) & setMask;
+    }
+
+    /** Only hashes with at least 128 bits in hex are cached, longer ones are keyed by their first 128 bits. */
+    private static boolean isCacheable(String hash) {
+        if (hash == null || hash.length() < 32) {
+            return false;
+        }
+        for (int i = 0; i < 32; i++) {
+            if (Character.digit(hash.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the first half of the 128-bit key of the hash, a hash which is not hex is mixed from its string hash. */
+    static long keyHigh(String hash) {
+        return isCacheable(hash) ? parseHex(hash, 0) : mix(hash.hashCode());
+    }
+
+    /** Returns the second half of the 128-bit key of the hash. */
+    static long keyLow(String hash) {
+        return isCacheable(hash) ? parseHex(hash, 16) : mix(~hash.hashCode());
+    }
+
+    private static long mix(long value) {
+        // finalizer of MurmurHash3
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        return value ^ (value >>> 33);
+    }
+
+    private static long parseHex(String hash, int from) {
+        long value = 0;
+        for (int i = from; i < from + 16; i++) {
+            value = (value << 4) | Character.digit(hash.charAt(i), 16);
+        }
+        return value;
+    }
+}
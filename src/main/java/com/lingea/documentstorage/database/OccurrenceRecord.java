@@ -39,6 +39,22 @@ public class OccurrenceRecord {
         return new OccurrenceRecord(documentId, url, indexerId, nowDate);
     }
 
+    /** Inserts the occurrence with a cached statement, meant to be called inside a transaction. */
+    public static OccurrenceRecord create(StatementCache statements, Url url, int documentId, String indexerId,
+            Clock clock) throws SQLException {
+        long nowDate = Instant.now(clock).getEpochSecond();
+
+        PreparedStatement stmt = statements.prepare(
+                "INSERT INTO Occurrence (url, document, time, indexerId) VALUES (?, ?, ?, ?)");
+        stmt.setInt(1, url.getId());
+        stmt.setInt(2, documentId);
+        stmt.setLong(3, nowDate);
+        stmt.setString(4, indexerId);
+        stmt.executeUpdate();
+
+        return new OccurrenceRecord(documentId, url, indexerId, nowDate);
+    }
+
     /**
      * Retrieves all occurrenceRecords by document id
      * @param conn Database connection
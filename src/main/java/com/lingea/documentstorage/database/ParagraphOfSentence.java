@@ -9,6 +9,9 @@ import java.sql.Statement;
 import java.util.List;
 
 public class ParagraphOfSentence {
+    private static final String INSERT_MANY_SQL =
+            "INSERT OR IGNORE INTO ParagraphOfSentence (paragraph, sentence, position) VALUES (?, ?, ?)";
+
     private final int paragraphId;
     private final int sentenceId;
     private final int position;
@@ -58,9 +61,7 @@ public class ParagraphOfSentence {
             List<List<SentenceRecord>> sentenceRecords)
             throws SQLException {
 
-        String sql = "INSERT OR IGNORE INTO ParagraphOfSentence (paragraph, sentence, position) VALUES (?, ?, ?)";
-
-        PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+        PreparedStatement stmt = conn.prepareStatement(INSERT_MANY_SQL, Statement.RETURN_GENERATED_KEYS);
 
         for (int i = 0; i < sentenceRecords.size(); i++) {
             for (int j = 0; j < sentenceRecords.get(i).size(); j++) {
@@ -77,4 +78,19 @@ public class ParagraphOfSentence {
             e.printStackTrace();
         }
     }
+
+    /** Inserts the sentences of the paragraphs with a cached statement, failures are passed to the caller. */
+    public static void createMany(StatementCache statements, ParagraphRecord[] paragraphRecords,
+            List<List<SentenceRecord>> sentenceRecords) throws SQLException {
+        PreparedStatement stmt = statements.prepare(INSERT_MANY_SQL);
+        for (int i = 0; i < sentenceRecords.size(); i++) {
+            for (int j = 0; j < sentenceRecords.get(i).size(); j++) {
+                stmt.setInt(1, paragraphRecords[i].getId());
+                stmt.setInt(2, sentenceRecords.get(i).get(j).getId());
+                stmt.setInt(3, j);
+                stmt.addBatch();
+            }
+        }
+        stmt.executeBatch();
+    }
 }
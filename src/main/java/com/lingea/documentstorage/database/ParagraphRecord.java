@@ -6,15 +6,20 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Objects;
 import java.util.Map;
-import java.util.HashMap;
 
 import org.sqlite.SQLiteErrorCode;
 import org.sqlite.SQLiteException;
 
 import com.lingea.documentstorage.exception.RecordAlreadyExistsException;
 import com.lingea.documentstorage.exception.RecordNotFoundException;
+import com.lingea.documentstorage.recording.Digest;
+import com.lingea.documentstorage.recording.DigestArray;
 
 public class ParagraphRecord extends AbstractRecord {
     private static final String TYPE = "Document";
@@ -23,11 +28,19 @@ public class ParagraphRecord extends AbstractRecord {
         super(TYPE, id, hash);
     }
 
+    private ParagraphRecord(int id, String hash, boolean created) {
+        super(TYPE, id, hash, created);
+    }
+
+    private ParagraphRecord(int id, Digest digest, boolean created) {
+        super(TYPE, id, digest, created);
+    }
+
     public static ParagraphRecord create(Connection conn, int documentId, int position, String hash)
             throws SQLException, IOException, RecordAlreadyExistsException {
         String sql = "INSERT INTO Paragraph (hash) VALUES (?)";
         PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
-        stmt.setString(1, hash);
+        stmt.setBytes(1, toBlob(hash));
 
         try {
             stmt.executeUpdate();
@@ -61,59 +74,139 @@ public class ParagraphRecord extends AbstractRecord {
 
         ParagraphRecord[] result = new ParagraphRecord[hashes.length];
         for (int i = 0; i < hashes.length; i++) {
-            System.out.println(resultMap.get(hashes[i]) + " - " + hashes[i]);
-            result[i] = new ParagraphRecord(resultMap.get(hashes[i]), hashes[i]);
+            result[i] = new ParagraphRecord(getResolvedId(resultMap, "Paragraph", hashes[i]), hashes[i]);
         }
 
         return result;
     }
 
-    private static void insertMany(Connection conn, String[] hashes) throws SQLException {
-        String sql = "INSERT INTO Paragraph (hash) SELECT ? WHERE NOT EXISTS " +
-                "(SELECT hash FROM Paragraph WHERE hash = ?)";
+    /**
+     * Method for inserting multiple paragraphs at once, only the hashes missing in the cache go to the database.
+     * Hashes which the filter has certainly not seen are inserted without the existence check.
+     * The ids read from the database are cached right away if the connection is in autocommit mode,
+     * otherwise the caller caches them once the transaction is committed.
+     * @param filter - filter of the hashes in the Paragraph table, may be null
+     */
+    public static ParagraphRecord[] createMany(Connection conn, String[] hashes, HashIdCache cache,
+            BloomFilter filter) throws SQLException, IOException {
+        ParagraphRecord[] result = new ParagraphRecord[hashes.length];
+        List<String> newHashes = new ArrayList<>();
+        for (int i = 0; i < hashes.length; i++) {
+            int id = cache.get(hashes[i]);
+            if (id != 0) {
+                result[i] = new ParagraphRecord(id, hashes[i]);
+            } else if (filter != null && !filter.mightContain(hashes[i])) {
+                filter.add(hashes[i]);
+                newHashes.add(hashes[i]);
+            }
+        }
 
-        PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+        Map<String, Integer> inserted = insertNew(conn, "Paragraph", newHashes);
+        List<String> misses = new ArrayList<>();
         for (int i = 0; i < hashes.length; i++) {
-            stmt.setString(1, hashes[i]);
-            stmt.setString(2, hashes[i]);
-            stmt.addBatch();
+            Integer id = inserted.get(hashes[i]);
+            if (id != null) {
+                result[i] = new ParagraphRecord(id, hashes[i]);
+            } else if (result[i] == null) {
+                if (filter != null) {
+                    filter.add(hashes[i]);
+                }
+                misses.add(hashes[i]);
+            }
         }
-        try {
-            stmt.executeBatch();
-        } catch (SQLException e) {
-            e.printStackTrace();
+        boolean committed = conn.getAutoCommit();
+        if (committed) {
+            for (Map.Entry<String, Integer> entry : inserted.entrySet()) {
+                cache.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (misses.isEmpty()) {
+            return result;
         }
+
+        ParagraphRecord[] resolved = createMany(conn, misses.toArray(new String[0]));
+        for (int i = 0, j = 0; i < hashes.length; i++) {
+            if (result[i] == null) {
+                result[i] = resolved[j++];
+            }
+        }
+        if (committed) {
+            cache.putAll(resolved);
+        }
+        return result;
     }
 
-    private static Map<String, Integer> getUniqueHashes(Connection conn, String[] hashes) throws SQLException {
-        StringBuilder builder = new StringBuilder("SELECT id, hash FROM Paragraph WHERE hash in (");
-        for (int i = 0; i < hashes.length; i++) {
-            builder.append("?");
-            if (i < hashes.length - 1) {
-                builder.append(", ");
+    /**
+     * Method for inserting the paragraphs of a document with the cached statements, meant to be called
+     * inside a transaction. Returns an array of paragraph records of the same size as the hashes input array,
+     * only the first record of every newly inserted hash is marked as created.
+     */
+    public static ParagraphRecord[] createMany(StatementCache statements, String[] hashes) throws SQLException {
+        return createMany(statements, hashes, null, null);
+    }
+
+    /**
+     * Method for inserting the paragraphs of a document inside a transaction, the ids of the hashes found
+     * in the cache are not looked up. Hashes which the filter may have seen are looked up before the insert
+     * is tried, the others are inserted right away. The cache is not updated, the caller caches the records
+     * after the commit.
+     * @param cache - cache of the committed ids, may be null
+     * @param filter - filter of the hashes in the Paragraph table, may be null
+     */
+    public static ParagraphRecord[] createMany(StatementCache statements, String[] hashes, HashIdCache cache,
+            BloomFilter filter) throws SQLException {
+        return createMany(statements, DigestArray.fromHex(hashes), cache, filter);
+    }
+
+    /**
+     * Method for inserting the paragraphs of a document inside a transaction, the same as
+     * {@link #createMany(StatementCache, String[], HashIdCache, BloomFilter)} for the digests
+     * computed by {@link DigestArray#hash}.
+     */
+    public static ParagraphRecord[] createMany(StatementCache statements, DigestArray digests, HashIdCache cache,
+            BloomFilter filter) throws SQLException {
+        ParagraphRecord[] result = new ParagraphRecord[digests.size()];
+        for (int i = 0; i < digests.size(); i++) {
+            byte[] digest = digests.getBytes(i);
+            int id = cache == null ? 0 : cache.get(digests, i);
+            boolean created = false;
+            if (id == 0 && (filter == null || filter.mightContain(digests, i))) {
+                id = getIdByHash(statements, "Paragraph", digest);
+            }
+            if (id == 0) {
+                if (filter != null) {
+                    filter.add(digests, i);
+                }
+                id = insertIfAbsent(statements, "Paragraph", digest);
+                created = id != 0;
+                if (!created) {
+                    id = getIdByHash(statements, "Paragraph", digest);
+                }
             }
+            result[i] = new ParagraphRecord(id, Digest.of(digest), created);
         }
-        builder.append(")");
+        return result;
+    }
 
-        PreparedStatement stmt = conn.prepareStatement(builder.toString());
+    private static void insertMany(Connection conn, String[] hashes) throws SQLException {
+        String sql = "INSERT INTO Paragraph (hash) SELECT ? WHERE NOT EXISTS " +
+                "(SELECT hash FROM Paragraph WHERE hash = ?)";
 
+        PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
         for (int i = 0; i < hashes.length; i++) {
-            stmt.setString(i + 1, hashes[i]);
+            stmt.setBytes(1, toBlob(hashes[i]));
+            stmt.setBytes(2, toBlob(hashes[i]));
+            stmt.addBatch();
         }
-
-        ResultSet rs;
         try {
-            rs = stmt.executeQuery();
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return null;
+            stmt.executeBatch();
+        } finally {
+            stmt.close();
         }
+    }
 
-        Map<String, Integer> resultMap = new HashMap<>();
-        while (rs.next()) {
-            resultMap.put(rs.getString("hash"), rs.getInt("id"));
-        }
-        return resultMap;
+    private static Map<String, Integer> getUniqueHashes(Connection conn, String[] hashes) throws SQLException {
+        return StagingTable.resolveIds(conn, "Paragraph", Arrays.asList(hashes));
     }
 
     // TODO: PoC, currently unused, maybe we would wish to use this in the future for
@@ -137,7 +230,7 @@ public class ParagraphRecord extends AbstractRecord {
 
         // paragraph
         int pId = rs.getInt(1);
-        String pHash = rs.getString(2);
+        String pHash = fromBlob(rs.getBytes(2));
 
         return new ParagraphRecord(pId, pHash);
     }
@@ -148,7 +241,7 @@ public class ParagraphRecord extends AbstractRecord {
         String sql = "SELECT P.id, P.hash FROM Paragraph P\n" +
                     "WHERE id = ?";
 
-        return genericGetParagraphRecord(conn, sql, new String[]{ Integer.toString(id) });
+        return genericGetParagraphRecord(conn, sql, id);
     }
 
     public static ParagraphRecord getByHash(Connection conn, String hash)
@@ -156,25 +249,42 @@ public class ParagraphRecord extends AbstractRecord {
         String sql = "SELECT P.id, P.hash FROM Paragraph P\n" +
                 "WHERE hash = ?";
 
-        return genericGetParagraphRecord(conn, sql, new String[] { hash });
+        return genericGetParagraphRecord(conn, sql, toLookupBlob("Paragraph", hash));
     }
 
-    private static ParagraphRecord genericGetParagraphRecord(Connection conn, String sql, String[] args)
+    /**
+     * Returns the paragraphs of the ids, looked up with a single join of the staged ids.
+     * @return - map from the ids to the paragraphs, ids of no paragraph are missing in it
+     */
+    public static Map<Integer, ParagraphRecord> getByIds(Connection conn, int[] ids) throws SQLException {
+        String sql = "SELECT T.id, T.hash FROM " + StagingTable.TABLE + " S CROSS JOIN Paragraph T ON T.id = S.value";
+
+        Map<Integer, ParagraphRecord> records = new HashMap<>();
+        try (StagingTable staging = new StagingTable(conn)) {
+            staging.addIds(ids);
+            try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+                while (rs.next()) {
+                    records.put(rs.getInt(1), new ParagraphRecord(rs.getInt(1), fromBlob(rs.getBytes(2))));
+                }
+            }
+        }
+        return records;
+    }
+
+    private static ParagraphRecord genericGetParagraphRecord(Connection conn, String sql, Object arg)
             throws SQLException, IOException, RecordNotFoundException {
         PreparedStatement stmt = conn.prepareStatement(sql);
-        for (int i = 0; i < args.length; i++) {
-            stmt.setString(i + 1, args[i]);
-        }
+        stmt.setObject(1, arg);
         ResultSet rs = stmt.executeQuery();
 
         if (!rs.next()) {
-            throw new RecordNotFoundException(
-                    "Error while processing query " + sql + " with arguments, " + String.join(", ", args));
+            throw new RecordNotFoundException("Error while processing query " + sql + " with argument "
+                    + (arg instanceof byte[] ? fromBlob((byte[]) arg) : arg));
         }
 
         // Paragraph
         int paragraphId = rs.getInt(1);
-        String paragraphHash = rs.getString(2);
+        String paragraphHash = fromBlob(rs.getBytes(2));
 
         stmt.close();
 
@@ -185,7 +295,7 @@ public class ParagraphRecord extends AbstractRecord {
         String sql = "UPDATE Paragraph SET hash = ? WHERE id = ?";
 
         PreparedStatement stmt = conn.prepareStatement(sql);
-        stmt.setString(1, hash);
+        stmt.setBytes(1, toBlob(hash));
         stmt.setInt(2, id);
         stmt.executeUpdate();
         stmt.close();
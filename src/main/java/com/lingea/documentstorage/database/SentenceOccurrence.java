@@ -11,6 +11,8 @@ import java.util.List;
 import com.lingea.documentstorage.DocumentMeta;
 
 public class SentenceOccurrence {
+    private static final String INSERT_MANY_SQL = "INSERT OR IGNORE INTO SentenceOccurrence "
+            + "(sentence, document, paragraph, documentPos, paragraphPos) VALUES (?, ?, ?, ?, ?)";
 
     public static void create(Connection conn, int sentenceId, int docId, int paragraphId,
             int documentPosition, int paragraphPosition)
@@ -36,9 +38,7 @@ public class SentenceOccurrence {
             List<List<SentenceRecord>> sentenceRecords)
             throws SQLException {
 
-        String sql = "INSERT OR IGNORE INTO SentenceOccurrence (sentence, document, paragraph, documentPos, paragraphPos) VALUES (?, ?, ?, ?, ?)";
-
-        PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+        PreparedStatement stmt = conn.prepareStatement(INSERT_MANY_SQL, Statement.RETURN_GENERATED_KEYS);
 
         for (int i = 0; i < sentenceRecords.size(); i++) {
             for (int j = 0; j < sentenceRecords.get(i).size(); j++) {
@@ -57,4 +57,21 @@ public class SentenceOccurrence {
             e.printStackTrace();
         }
     }
+
+    /** Inserts the sentence occurrences of the document with a cached statement, failures are passed to the caller. */
+    public static void createMany(StatementCache statements, int docId, ParagraphRecord[] paragraphRecords,
+            List<List<SentenceRecord>> sentenceRecords) throws SQLException {
+        PreparedStatement stmt = statements.prepare(INSERT_MANY_SQL);
+        for (int i = 0; i < sentenceRecords.size(); i++) {
+            for (int j = 0; j < sentenceRecords.get(i).size(); j++) {
+                stmt.setInt(1, sentenceRecords.get(i).get(j).getId());
+                stmt.setInt(2, docId);
+                stmt.setInt(3, paragraphRecords[i].getId());
+                stmt.setInt(4, i);
+                stmt.setInt(5, j);
+                stmt.addBatch();
+            }
+        }
+        stmt.executeBatch();
+    }
 }
@@ -6,16 +6,19 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
-import java.util.HashMap;
 
 import org.sqlite.SQLiteErrorCode;
 import org.sqlite.SQLiteException;
 
 import com.lingea.documentstorage.exception.RecordAlreadyExistsException;
 import com.lingea.documentstorage.exception.RecordNotFoundException;
+import com.lingea.documentstorage.recording.Digest;
+import com.lingea.documentstorage.recording.DigestArray;
 
 public class SentenceRecord extends AbstractRecord {
     private static final String TYPE = "Sentence";
@@ -24,11 +27,19 @@ public class SentenceRecord extends AbstractRecord {
         super(TYPE, id, hash);
     }
 
+    private SentenceRecord(int id, String hash, boolean created) {
+        super(TYPE, id, hash, created);
+    }
+
+    private SentenceRecord(int id, Digest digest, boolean created) {
+        super(TYPE, id, digest, created);
+    }
+
     public static SentenceRecord create(Connection conn, int paragraphId, int position, String hash)
             throws SQLException, IOException, RecordAlreadyExistsException {
         String sql = "INSERT INTO Sentence (hash) VALUES (?)";
         PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
-        stmt.setString(1, hash);
+        stmt.setBytes(1, toBlob(hash));
 
         try {
             stmt.executeUpdate();
@@ -65,70 +76,172 @@ public class SentenceRecord extends AbstractRecord {
 
         for (int i = 0; i < hashes.size(); i++) {
             for (int j = 0; j < hashes.get(i).size(); j++) {
-                result.get(i).add(new SentenceRecord(resultMap.get(hashes.get(i).get(j)), hashes.get(i).get(j)));
+                String hash = hashes.get(i).get(j);
+                result.get(i).add(new SentenceRecord(getResolvedId(resultMap, TYPE, hash), hash));
             }
         }
 
         return result;
     }
 
-    private static void insertMany(Connection conn, List<List<String>> hashes) throws SQLException {
-        String sql = "INSERT INTO Sentence (hash) SELECT ? WHERE NOT EXISTS " +
-                "(SELECT hash FROM Sentence WHERE hash = ?)";
-
-        PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+    /**
+     * Method for inserting the sentences of multiple paragraphs at once, only the hashes missing in the cache
+     * go to the database. Hashes which the filter has certainly not seen are inserted without the existence check.
+     * The ids read from the database are cached right away if the connection is in autocommit mode,
+     * otherwise the caller caches them once the transaction is committed.
+     * @param filter - filter of the hashes in the Sentence table, may be null
+     */
+    public static List<List<SentenceRecord>> createMany(Connection conn, List<List<String>> hashes,
+            ParagraphRecord[] paragraphRecords, HashIdCache cache, BloomFilter filter) throws SQLException {
+        List<List<SentenceRecord>> result = new ArrayList<>();
+        List<String> newHashes = new ArrayList<>();
+        for (int i = 0; i < paragraphRecords.length; i++) {
+            result.add(new ArrayList<>());
+        }
+        for (int i = 0; i < hashes.size(); i++) {
+            for (String hash : hashes.get(i)) {
+                int id = cache.get(hash);
+                if (id != 0) {
+                    result.get(i).add(new SentenceRecord(id, hash));
+                    continue;
+                }
+                if (filter != null && !filter.mightContain(hash)) {
+                    filter.add(hash);
+                    newHashes.add(hash);
+                }
+                result.get(i).add(null);
+            }
+        }
 
+        Map<String, Integer> resultMap = insertNew(conn, TYPE, newHashes); // result map = hash -> id
+        List<String> misses = new ArrayList<>();
         for (int i = 0; i < hashes.size(); i++) {
             for (int j = 0; j < hashes.get(i).size(); j++) {
-                stmt.setString(1, hashes.get(i).get(j));
-                stmt.setString(2, hashes.get(i).get(j));
-                stmt.addBatch();
+                String hash = hashes.get(i).get(j);
+                if (result.get(i).get(j) == null && !resultMap.containsKey(hash)) {
+                    if (filter != null) {
+                        filter.add(hash);
+                    }
+                    misses.add(hash);
+                }
             }
         }
+        if (!misses.isEmpty()) {
+            List<List<String>> missHashes = Collections.singletonList(misses);
+            insertMany(conn, missHashes);
+            resultMap.putAll(getUniqueHashes(conn, missHashes));
+        }
 
-        try {
-            stmt.executeBatch();
-        } catch (SQLException e) {
-            e.printStackTrace();
+        boolean committed = conn.getAutoCommit();
+        for (int i = 0; i < hashes.size(); i++) {
+            List<SentenceRecord> sentences = result.get(i);
+            for (int j = 0; j < sentences.size(); j++) {
+                if (sentences.get(j) == null) {
+                    String hash = hashes.get(i).get(j);
+                    int id = getResolvedId(resultMap, TYPE, hash);
+                    sentences.set(j, new SentenceRecord(id, hash));
+                    if (committed) {
+                        cache.put(hash, id);
+                    }
+                }
+            }
         }
+        return result;
     }
 
-    private static Map<String, Integer> getUniqueHashes(Connection conn, List<List<String>> hashes)
+    /**
+     * Method for inserting the sentences of the paragraphs of a document with the cached statements,
+     * meant to be called inside a transaction. Only the first record of every newly inserted hash
+     * is marked as created.
+     */
+    public static List<List<SentenceRecord>> createMany(StatementCache statements, List<List<String>> hashes)
             throws SQLException {
-        StringBuilder builder = new StringBuilder("SELECT id, hash FROM Sentence WHERE hash IN (");
+        return createMany(statements, hashes, null, null);
+    }
+
+    /**
+     * Method for inserting the sentences of a document inside a transaction, the ids of the hashes found
+     * in the cache are not looked up. Hashes which the filter may have seen are looked up before the insert
+     * is tried, the others are inserted right away. The cache is not updated, the caller caches the records
+     * after the commit.
+     * @param cache - cache of the committed ids, may be null
+     * @param filter - filter of the hashes in the Sentence table, may be null
+     */
+    public static List<List<SentenceRecord>> createMany(StatementCache statements, List<List<String>> hashes,
+            HashIdCache cache, BloomFilter filter) throws SQLException {
+        List<String> flat = new ArrayList<>();
+        int[] counts = new int[hashes.size()];
         for (int i = 0; i < hashes.size(); i++) {
-            for (int j = 0; j < hashes.get(i).size(); j++) {
-                builder.append("?");
-                if (!(i == hashes.size() - 1 && j == hashes.get(i).size() - 1)) {
-                    builder.append(", ");
+            flat.addAll(hashes.get(i));
+            counts[i] = hashes.get(i).size();
+        }
+        return createMany(statements, DigestArray.fromHex(flat), counts, cache, filter);
+    }
+
+    /**
+     * Method for inserting the sentences of a document inside a transaction, the same as
+     * {@link #createMany(StatementCache, List, HashIdCache, BloomFilter)} for the digests of all sentences
+     * of the document computed by {@link DigestArray#hash}.
+     * @param counts - numbers of sentences of the paragraphs, they sum up to the number of digests
+     */
+    public static List<List<SentenceRecord>> createMany(StatementCache statements, DigestArray digests, int[] counts,
+            HashIdCache cache, BloomFilter filter) throws SQLException {
+        List<List<SentenceRecord>> result = new ArrayList<>(counts.length);
+        int i = 0;
+        for (int count : counts) {
+            List<SentenceRecord> sentences = new ArrayList<>(count);
+            for (int end = i + count; i < end; i++) {
+                byte[] digest = digests.getBytes(i);
+                int id = cache == null ? 0 : cache.get(digests, i);
+                boolean created = false;
+                if (id == 0 && (filter == null || filter.mightContain(digests, i))) {
+                    id = getIdByHash(statements, TYPE, digest);
                 }
+                if (id == 0) {
+                    if (filter != null) {
+                        filter.add(digests, i);
+                    }
+                    id = insertIfAbsent(statements, TYPE, digest);
+                    created = id != 0;
+                    if (!created) {
+                        id = getIdByHash(statements, TYPE, digest);
+                    }
+                }
+                sentences.add(new SentenceRecord(id, Digest.of(digest), created));
             }
+            result.add(sentences);
         }
-        builder.append(")");
+        return result;
+    }
+
+    private static void insertMany(Connection conn, List<List<String>> hashes) throws SQLException {
+        String sql = "INSERT INTO Sentence (hash) SELECT ? WHERE NOT EXISTS " +
+                "(SELECT hash FROM Sentence WHERE hash = ?)";
 
-        PreparedStatement stmt = conn.prepareStatement(builder.toString());
+        PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
 
-        int index = 1;
         for (int i = 0; i < hashes.size(); i++) {
             for (int j = 0; j < hashes.get(i).size(); j++) {
-                stmt.setString(index, hashes.get(i).get(j));
-                index++;
+                stmt.setBytes(1, toBlob(hashes.get(i).get(j)));
+                stmt.setBytes(2, toBlob(hashes.get(i).get(j)));
+                stmt.addBatch();
             }
         }
 
-        ResultSet rs;
         try {
-            rs = stmt.executeQuery();
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return null;
+            stmt.executeBatch();
+        } finally {
+            stmt.close();
         }
+    }
 
-        Map<String, Integer> resultMap = new HashMap<>();
-        while (rs.next()) {
-            resultMap.put(rs.getString("hash"), rs.getInt("id"));
+    private static Map<String, Integer> getUniqueHashes(Connection conn, List<List<String>> hashes)
+            throws SQLException {
+        List<String> flat = new ArrayList<>();
+        for (List<String> paragraphHashes : hashes) {
+            flat.addAll(paragraphHashes);
         }
-        return resultMap;
+        return StagingTable.resolveIds(conn, TYPE, flat);
     }
 
     public static SentenceRecord getById(Connection conn, int id) 
@@ -137,7 +250,7 @@ public class SentenceRecord extends AbstractRecord {
         String sql = "SELECT S.id, S.hash FROM Sentence S\n" +
                 "WHERE id = ?";
 
-        return genericGetSentenceRecord(conn, sql, new String[] { Integer.toString(id) });
+        return genericGetSentenceRecord(conn, sql, id);
     }
 
     public static SentenceRecord getByHash(Connection conn, String hash)
@@ -145,25 +258,42 @@ public class SentenceRecord extends AbstractRecord {
         String sql = "SELECT S.id, S.hash FROM Sentence S\n" +
                 "WHERE hash = ?";
 
-        return genericGetSentenceRecord(conn, sql, new String[] { hash });
+        return genericGetSentenceRecord(conn, sql, toLookupBlob(TYPE, hash));
     }
 
-    private static SentenceRecord genericGetSentenceRecord(Connection conn, String sql, String[] args)
+    /**
+     * Returns the sentences of the ids, looked up with a single join of the staged ids.
+     * @return - map from the ids to the sentences, ids of no sentence are missing in it
+     */
+    public static Map<Integer, SentenceRecord> getByIds(Connection conn, int[] ids) throws SQLException {
+        String sql = "SELECT T.id, T.hash FROM " + StagingTable.TABLE + " S CROSS JOIN Sentence T ON T.id = S.value";
+
+        Map<Integer, SentenceRecord> records = new HashMap<>();
+        try (StagingTable staging = new StagingTable(conn)) {
+            staging.addIds(ids);
+            try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+                while (rs.next()) {
+                    records.put(rs.getInt(1), new SentenceRecord(rs.getInt(1), fromBlob(rs.getBytes(2))));
+                }
+            }
+        }
+        return records;
+    }
+
+    private static SentenceRecord genericGetSentenceRecord(Connection conn, String sql, Object arg)
             throws SQLException, IOException, RecordNotFoundException {
         PreparedStatement stmt = conn.prepareStatement(sql);
-        for (int i = 0; i < args.length; i++) {
-            stmt.setString(i + 1, args[i]);
-        }
+        stmt.setObject(1, arg);
         ResultSet rs = stmt.executeQuery();
 
         if (!rs.next()) {
-            throw new RecordNotFoundException(
-                    "Error while processing query " + sql + " with arguments, " + String.join(", ", args));
+            throw new RecordNotFoundException("Error while processing query " + sql + " with argument "
+                    + (arg instanceof byte[] ? fromBlob((byte[]) arg) : arg));
         }
 
         // Sentence
         int sentenceId = rs.getInt(1);
-        String sentenceHash = rs.getString(2);
+        String sentenceHash = fromBlob(rs.getBytes(2));
 
         stmt.close();
 
@@ -174,7 +304,7 @@ public class SentenceRecord extends AbstractRecord {
         String sql = "UPDATE Sentence SET hash = ? WHERE id = ?";
 
         PreparedStatement stmt = conn.prepareStatement(sql);
-        stmt.setString(1, hash);
+        stmt.setBytes(1, toBlob(hash));
         stmt.setInt(2, id);
         stmt.executeUpdate();
         stmt.close();
@@ -0,0 +1,170 @@
+package com.lingea.documentstorage.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Temporary table of the connection holding the values of a lookup, which is joined instead of binding
+ * a parameter per value into {@code IN (?, ?, ...)}, so lists of any size fit under the SQLite variable limit
+ * and the query is parsed only once. The values are the primary key of the table, so the join walks them
+ * in their sorted order and probes the index of the joined table with good locality.
+ * The table lives in the temp database of the connection, it works on read-only connections as well.
+ * Closing the staging table empties it, the table itself is kept for the next lookup on the connection.
+ */
+public class StagingTable implements AutoCloseable {
+    /** Name of the table, to be used in queries as {@code IN (SELECT value FROM ...)}. */
+    public static final String TABLE = "temp.StagedValue";
+
+    /** Number of values inserted by one statement, far below the SQLite variable limit. */
+    private static final int ROWS_PER_INSERT = 256;
+
+    private final Connection conn;
+
+    /** Creates the table on the first use on the connection and removes values left in it. */
+    public StagingTable(Connection conn) throws SQLException {
+        this.conn = conn;
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("CREATE TEMP TABLE IF NOT EXISTS StagedValue (value PRIMARY KEY) WITHOUT ROWID");
+            stmt.executeUpdate("DELETE FROM " + TABLE);
+        }
+    }
+
+    /**
+     * Adds the hex hashes as the digest bytes they are stored as, duplicates are ignored.
+     * Hashes which are not hex strings are skipped, no record can have them.
+     */
+    public StagingTable addHashes(Collection<String> hashes) throws SQLException {
+        byte[][] digests = new byte[hashes.size()][];
+        int i = 0;
+        for (String hash : hashes) {
+            try {
+                digests[i] = AbstractRecord.toBlob(hash);
+                i++;
+            } catch (IllegalArgumentException e) {
+                // not a digest, so not found
+            }
+        }
+        if (i < digests.length) {
+            digests = Arrays.copyOf(digests, i);
+        }
+        // inserting in the key order appends to the B-tree instead of splitting random pages
+        Arrays.sort(digests, StagingTable::compareUnsigned);
+        insert(digests);
+        return this;
+    }
+
+    /** Adds the values as text, which compares equal to integer columns as well, duplicates are ignored. */
+    public StagingTable addValues(Collection<String> values) throws SQLException {
+        String[] sorted = values.toArray(new String[0]);
+        Arrays.sort(sorted);
+        insert(sorted);
+        return this;
+    }
+
+    /** Adds the ids as integers, duplicates are ignored. */
+    public StagingTable addIds(int[] ids) throws SQLException {
+        int[] sorted = ids.clone();
+        Arrays.sort(sorted);
+        Integer[] values = new Integer[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            values[i] = sorted[i];
+        }
+        insert(values);
+        return this;
+    }
+
+    private void insert(Object[] values) throws SQLException {
+        // a connection in autocommit mode would commit every statement separately
+        boolean autoCommit = conn.getAutoCommit();
+        if (autoCommit) {
+            conn.setAutoCommit(false);
+        }
+        try {
+            int i = insertRows(values, 0, ROWS_PER_INSERT);
+            insertRows(values, i, 1);
+            if (autoCommit) {
+                conn.commit();
+            }
+        } catch (SQLException e) {
+            if (autoCommit) {
+                conn.rollback();
+            }
+            throw e;
+        } finally {
+            if (autoCommit) {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Inserts the values from the index by statements of the given number of rows, which is reused
+     * while enough values are left.
+     * @return - index of the first value which has not been inserted
+     */
+    private int insertRows(Object[] values, int from, int rows) throws SQLException {
+        if (values.length - from < rows) {
+            return from;
+        }
+        StringBuilder sql = new StringBuilder("INSERT OR IGNORE INTO " + TABLE + " VALUES (?)");
+        for (int i = 1; i < rows; i++) {
+            sql.append(", (?)");
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            for (; values.length - from >= rows; from += rows) {
+                for (int i = 0; i < rows; i++) {
+                    stmt.setObject(i + 1, values[from + i]);
+                }
+                stmt.executeUpdate();
+            }
+        }
+        return from;
+    }
+
+    /**
+     * Looks up the ids of the staged hashes in the table of the given type with a single join.
+     * @return - map from the hex hashes to their ids, hashes missing in the table are missing in it
+     */
+    public Map<String, Integer> resolveIds(String type) throws SQLException {
+        Map<String, Integer> ids = new HashMap<>();
+        String sql = "SELECT T.id, T.hash FROM " + TABLE + " S CROSS JOIN " + type + " T ON T.hash = S.value";
+        try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) {
+                ids.put(AbstractRecord.fromBlob(rs.getBytes(2)), rs.getInt(1));
+            }
+        }
+        return ids;
+    }
+
+    /** Looks up the ids of the hashes in the table of the given type, see {@link #resolveIds(String)}. */
+    public static Map<String, Integer> resolveIds(Connection conn, String type, Collection<String> hashes)
+            throws SQLException {
+        try (StagingTable staging = new StagingTable(conn)) {
+            return staging.addHashes(hashes).resolveIds(type);
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("DELETE FROM " + TABLE);
+        }
+    }
+
+    private static int compareUnsigned(byte[] a, byte[] b) {
+        for (int i = 0; i < Math.min(a.length, b.length); i++) {
+            int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return a.length - b.length;
+    }
+}
@@ -0,0 +1,61 @@
+package com.lingea.documentstorage.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Prepared statements of a connection kept for reuse, so a batch of documents saved in one transaction
+ * prepares every statement only once. Closing the cache closes the statements but not the connection.
+ */
+public class StatementCache implements AutoCloseable {
+    private final Connection conn;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+    public StatementCache(Connection conn) {
+        this.conn = conn;
+    }
+
+    /** Returns the prepared statement of the query, preparing it on the first use. */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement stmt = statements.get(sql);
+        if (stmt == null) {
+            stmt = conn.prepareStatement(sql);
+            statements.put(sql, stmt);
+        }
+        return stmt;
+    }
+
+    /** Returns the prepared statement of the insert whose generated key is read after it is executed. */
+    public PreparedStatement prepareInsert(String sql) throws SQLException {
+        PreparedStatement stmt = statements.get(sql);
+        if (stmt == null) {
+            stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+            statements.put(sql, stmt);
+        }
+        return stmt;
+    }
+
+    public Connection getConnection() {
+        return conn;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        SQLException error = null;
+        for (PreparedStatement stmt : statements.values()) {
+            try {
+                stmt.close();
+            } catch (SQLException e) {
+                error = e;
+            }
+        }
+        statements.clear();
+        if (error != null) {
+            throw error;
+        }
+    }
+}
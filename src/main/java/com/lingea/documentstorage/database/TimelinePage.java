@@ -0,0 +1,73 @@
+package com.lingea.documentstorage.database;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Page of the versions of an url in time order, returned by
+ * {@link DocumentRecord#getTimeline(java.sql.Connection, String, Cursor, int)}.
+ */
+public class TimelinePage {
+    /**
+     * Position in the timeline of an url after which the next page starts, the time and the row id
+     * of the last occurrence of the page. It can be passed around as the string of {@link #toString()}.
+     */
+    public static class Cursor {
+        private final long time;
+        private final long rowId;
+
+        public Cursor(long time, long rowId) {
+            this.time = time;
+            this.rowId = rowId;
+        }
+
+        /**
+         * Parses the string returned by {@link #toString()}.
+         * @throws IllegalArgumentException if the string is not a cursor
+         */
+        public static Cursor parse(String cursor) {
+            int separator = cursor.indexOf(':');
+            try {
+                return new Cursor(Long.parseLong(cursor.substring(0, separator)),
+                        Long.parseLong(cursor.substring(separator + 1)));
+            } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Invalid timeline cursor " + cursor, e);
+            }
+        }
+
+        public long getTime() {
+            return this.time;
+        }
+
+        public long getRowId() {
+            return this.rowId;
+        }
+
+        @Override
+        public String toString() {
+            return time + ":" + rowId;
+        }
+    }
+
+    private final List<DocumentRecord> versions;
+    private final Cursor next;
+
+    TimelinePage(List<DocumentRecord> versions, Cursor next) {
+        this.versions = Collections.unmodifiableList(versions);
+        this.next = next;
+    }
+
+    /** Returns the versions of the page, every document record has the single occurrence of the version. */
+    public List<DocumentRecord> getVersions() {
+        return this.versions;
+    }
+
+    /** Returns the cursor of the next page, null if this is the last page. */
+    public Cursor getNext() {
+        return this.next;
+    }
+
+    public boolean hasNext() {
+        return this.next != null;
+    }
+}
@@ -45,6 +45,94 @@ public class Url {
         return new Url(urlId, url);
     }
 
+    /**
+     * Returns the url record, inserting the url if it is not there yet, meant to be called inside a transaction.
+     * @param statements statements of the connection
+     * @param url url
+     * @return Url object
+     * @throws SQLException
+     */
+    public static Url getOrCreate(StatementCache statements, String url) throws SQLException {
+        PreparedStatement insert = statements.prepareInsert("INSERT OR IGNORE INTO Url (url) VALUES (?)");
+        insert.setString(1, url);
+        if (insert.executeUpdate() > 0) {
+            try (ResultSet rs = insert.getGeneratedKeys()) {
+                rs.next();
+                return new Url(rs.getInt(1), url);
+            }
+        }
+
+        PreparedStatement select = statements.prepare("SELECT id FROM Url WHERE url = ?");
+        select.setString(1, url);
+        try (ResultSet rs = select.executeQuery()) {
+            if (!rs.next()) {
+                throw new SQLException("Url " + url + " has been neither inserted nor found");
+            }
+            return new Url(rs.getInt(1), url);
+        }
+    }
+
+    /**
+     * Returns the url record, the id of a url known to the dictionary is returned without a query. A new url
+     * is inserted with an id reserved in the dictionary, it is put into the dictionary by the caller
+     * once the transaction has been committed.
+     * @param statements statements of the connection
+     * @param url url
+     * @param dictionary dictionary of the committed urls
+     * @return Url object
+     * @throws SQLException
+     */
+    public static Url getOrCreate(StatementCache statements, String url, UrlDictionary dictionary) throws SQLException {
+        int id = dictionary.getId(url);
+        if (id != 0) {
+            return new Url(id, url);
+        }
+        return insertWithId(statements.prepare("INSERT OR IGNORE INTO Url (id, url) VALUES (?, ?)"),
+                statements.prepare("SELECT id FROM Url WHERE url = ?"), url, dictionary);
+    }
+
+    /**
+     * Returns the url record, see {@link #getOrCreate(StatementCache, String, UrlDictionary)}.
+     * @param conn Database connection
+     * @param url url
+     * @param dictionary dictionary of the committed urls
+     * @return Url object
+     * @throws SQLException
+     */
+    public static Url getOrCreate(Connection conn, String url, UrlDictionary dictionary) throws SQLException {
+        int id = dictionary.getId(url);
+        if (id != 0) {
+            return new Url(id, url);
+        }
+        try (PreparedStatement insert = conn.prepareStatement("INSERT OR IGNORE INTO Url (id, url) VALUES (?, ?)");
+                PreparedStatement select = conn.prepareStatement("SELECT id FROM Url WHERE url = ?")) {
+            return insertWithId(insert, select, url, dictionary);
+        }
+    }
+
+    /**
+     * Inserts the url with a new id of the dictionary, the url may have been inserted by a transaction
+     * which has not put it into the dictionary yet, or an id may be taken by a row missing in the dictionary.
+     */
+    private static Url insertWithId(PreparedStatement insert, PreparedStatement select, String url,
+            UrlDictionary dictionary) throws SQLException {
+        while (true) {
+            int id = dictionary.nextId();
+            insert.setInt(1, id);
+            insert.setString(2, url);
+            if (insert.executeUpdate() > 0) {
+                return new Url(id, url);
+            }
+
+            select.setString(1, url);
+            try (ResultSet rs = select.executeQuery()) {
+                if (rs.next()) {
+                    return new Url(rs.getInt(1), url);
+                }
+            }
+        }
+    }
+
      /**
       * Creates Url object based on the id url id
       * @param conn Database connection
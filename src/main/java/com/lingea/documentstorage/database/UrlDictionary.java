@@ -0,0 +1,500 @@
+package com.lingea.documentstorage.database;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * In-memory dictionary from urls to their ids, so saving an occurrence of a known url needs no SQL lookup.
+ * The urls are kept sorted in a front-coded block, every url in a bucket of {@link FrontCodedBlock#BUCKET_SIZE}
+ * stores only the suffix it does not share with the previous one, which takes a fraction of the memory
+ * of the strings because urls share their scheme, host and path. Urls added since the block has been built
+ * are kept in a hash map, which is merged into a new block once it has grown by a fraction of the block.
+ * <p>
+ * Ids of new urls are assigned by the dictionary and inserted into the Url table, which stays as the durable
+ * mirror used by the joins. A url is put into the dictionary only once the transaction inserting it has been
+ * committed, which appends it to the dictionary file. The file is loaded when the storage is opened and
+ * reconciled with the Url table, rows whose append has been lost are read from the table.
+ * The dictionary assumes urls are not updated or deleted while it is in use.
+ */
+public class UrlDictionary implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(UrlDictionary.class.getName());
+    private static final int MAGIC = 0x44535544;
+    private static final int VERSION = 1;
+    /** Smallest number of urls added since the block has been built which triggers the merge. */
+    private static final int MIN_MERGE_SIZE = 4096;
+    /** The urls added since the block has been built are merged once there are this fraction of the block. */
+    private static final int MERGE_RATIO = 8;
+    /** Longest url in UTF-8 kept in the dictionary, longer urls are always looked up in the table. */
+    private static final int MAX_URL_BYTES = 0xffff;
+
+    private final Path path;
+    private final AtomicInteger lastId;
+    private volatile FrontCodedBlock block;
+    private final Map<String, Integer> recent = new ConcurrentHashMap<>();
+    private final AtomicBoolean merging = new AtomicBoolean();
+    private DataOutputStream out;
+
+    private UrlDictionary(Path path, FrontCodedBlock block, int lastId) {
+        this.path = path;
+        this.block = block;
+        this.lastId = new AtomicInteger(lastId);
+    }
+
+    /**
+     * Loads the dictionary file and adds the urls of the Url table missing in it. The file is rebuilt
+     * from the table if it does not match the table, i.e. it has more urls than the table, an id above
+     * the highest id of the table, or its url of the highest id is not the one of the table,
+     * e.g. after the database has been restored.
+     */
+    public static UrlDictionary open(String path, Connection conn) throws IOException, SQLException {
+        Path file = Paths.get(path);
+        List<byte[]> urls = new ArrayList<>();
+        List<Integer> ids = new ArrayList<>();
+        long validLength = load(file, urls, ids);
+
+        // only the urls short enough to be kept are compared with the file
+        int tableCount;
+        int tableKeptMaxId;
+        int tableMaxId;
+        String sql = "SELECT sum(length(CAST(url AS BLOB)) <= ?), "
+                + "max(CASE WHEN length(CAST(url AS BLOB)) <= ? THEN id END), max(id) FROM Url";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, MAX_URL_BYTES);
+            stmt.setInt(2, MAX_URL_BYTES);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                tableCount = rs.getInt(1);
+                tableKeptMaxId = rs.getInt(2);
+                tableMaxId = rs.getInt(3);
+            }
+        }
+
+        boolean rebuild = validLength < 0 || urls.size() > tableCount
+                || !matchesHighestId(conn, urls, ids, tableCount, tableKeptMaxId);
+        if (rebuild) {
+            urls.clear();
+            ids.clear();
+        }
+        FrontCodedBlock block = FrontCodedBlock.build(urls, ids);
+        int loaded = urls.size();
+        if (loaded < tableCount) {
+            LOGGER.info("Adding " + (tableCount - loaded) + " urls to the url dictionary.");
+            try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("SELECT id, url FROM Url")) {
+                while (rs.next()) {
+                    String url = rs.getString(2);
+                    byte[] bytes = url == null ? null : url.getBytes(StandardCharsets.UTF_8);
+                    if (bytes != null && bytes.length <= MAX_URL_BYTES && block.getId(bytes) == 0) {
+                        urls.add(bytes);
+                        ids.add(rs.getInt(1));
+                    }
+                }
+            }
+            block = FrontCodedBlock.build(urls, ids);
+        }
+
+        int lastId = tableMaxId;
+        for (int id : ids) {
+            lastId = Math.max(lastId, id);
+        }
+        UrlDictionary dictionary = new UrlDictionary(file, block, lastId);
+        dictionary.openFile(rebuild ? -1 : validLength);
+        for (int i = rebuild ? 0 : loaded; i < urls.size(); i++) {
+            dictionary.append(urls.get(i), ids.get(i));
+        }
+        dictionary.out.flush();
+        return dictionary;
+    }
+
+    /**
+     * Checks the url of the highest id of the file against the table. The highest id of the file may be below
+     * the one of the table only when appends have been lost, the missing urls are then read from the table.
+     */
+    private static boolean matchesHighestId(Connection conn, List<byte[]> urls, List<Integer> ids, int tableCount,
+            int tableMaxId) throws SQLException {
+        int highest = -1;
+        for (int i = 0; i < ids.size(); i++) {
+            if (highest < 0 || ids.get(i) > ids.get(highest)) {
+                highest = i;
+            }
+        }
+        if (highest < 0) {
+            return true;
+        }
+        if (ids.get(highest) > tableMaxId || ids.size() == tableCount && ids.get(highest) < tableMaxId) {
+            return false;
+        }
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT url FROM Url WHERE id = ?")) {
+            stmt.setInt(1, ids.get(highest));
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() && rs.getString(1) != null
+                        && Arrays.equals(rs.getString(1).getBytes(StandardCharsets.UTF_8), urls.get(highest));
+            }
+        }
+    }
+
+    /**
+     * Reads the urls of the file.
+     * @return - length of the valid part of the file, -1 if the file is not a dictionary
+     */
+    private static long load(Path file, List<byte[]> urls, List<Integer> ids) throws IOException {
+        if (!Files.exists(file)) {
+            return -1;
+        }
+        long length = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return -1;
+            }
+            length = 8;
+            while (true) {
+                int id = in.readInt();
+                byte[] url = new byte[in.readUnsignedShort()];
+                in.readFully(url);
+                urls.add(url);
+                ids.add(id);
+                length += 6 + url.length;
+            }
+        } catch (EOFException e) {
+            // a record torn by a crash is cut off, its url is read from the table again
+            return length == 0 ? -1 : length;
+        }
+    }
+
+    /** Opens the file for appending, cutting it at the given length, a new file is created for -1. */
+    private void openFile(long validLength) throws IOException {
+        if (validLength < 0) {
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        } else {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+            out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(path, StandardOpenOption.APPEND)));
+        }
+    }
+
+    private void append(byte[] url, int id) throws IOException {
+        out.writeInt(id);
+        out.writeShort(url.length);
+        out.write(url);
+    }
+
+    /** Returns the id of the url, 0 if the url is not in the dictionary. */
+    public int getId(String url) {
+        Integer id = recent.get(url);
+        if (id != null) {
+            return id;
+        }
+        return block.getId(url.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Reserves the id of a new url, the id stays unused if the url is not inserted. */
+    public int nextId() {
+        return lastId.incrementAndGet();
+    }
+
+    /**
+     * Puts the url committed into the Url table into the dictionary and appends it to the file.
+     * Urls longer than {@link #MAX_URL_BYTES} are not kept.
+     */
+    public void put(String url, int id) throws IOException {
+        synchronized (this) {
+            if (id <= 0 || getId(url) != 0) {
+                return;
+            }
+            byte[] bytes = url.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > MAX_URL_BYTES) {
+                return;
+            }
+            append(bytes, id);
+            recent.put(url, id);
+            if (id > lastId.get()) {
+                lastId.set(id);
+            }
+        }
+        // the block is built outside the lock, other urls are put meanwhile
+        if (recent.size() >= Math.max(MIN_MERGE_SIZE, block.size() / MERGE_RATIO)
+                && merging.compareAndSet(false, true)) {
+            try {
+                merge();
+            } finally {
+                merging.set(false);
+            }
+        }
+    }
+
+    /**
+     * Builds the block of all urls, readers find the urls in the map until the new block is published.
+     * Urls put while the block is being built stay in the map for the next merge.
+     */
+    private void merge() {
+        List<Map.Entry<String, Integer>> merged = new ArrayList<>(recent.entrySet());
+        FrontCodedBlock current = block;
+        List<byte[]> urls = new ArrayList<>(current.size() + merged.size());
+        List<Integer> ids = new ArrayList<>(current.size() + merged.size());
+        current.decode(urls, ids);
+        for (Map.Entry<String, Integer> entry : merged) {
+            urls.add(entry.getKey().getBytes(StandardCharsets.UTF_8));
+            ids.add(entry.getValue());
+        }
+        block = FrontCodedBlock.build(urls, ids);
+        for (Map.Entry<String, Integer> entry : merged) {
+            recent.remove(entry.getKey());
+        }
+    }
+
+    /** Writes the buffered appends to the file. */
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    public int size() {
+        return block.size() + recent.size();
+    }
+
+    /** Returns the memory taken by the front-coded block, the urls added since it has been built are not counted. */
+    public long getByteSize() {
+        return block.getByteSize();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    /** Immutable sorted urls, front coded in buckets. */
+    static final class FrontCodedBlock {
+        static final int BUCKET_SIZE = 16;
+
+        /** Buckets one after another, the first url of a bucket is whole, the others share a prefix with the previous one. */
+        private final byte[] data;
+        private final int[] bucketOffsets;
+        /** Scratch buffers of the lookups, holding the part of a decoded url as long as the looked up one. */
+        private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[256]);
+
+        /** Ids in the order of the urls. */
+        private final int[] ids;
+        private final int maxLength;
+
+        private FrontCodedBlock(byte[] data, int[] bucketOffsets, int[] ids, int maxLength) {
+            this.data = data;
+            this.bucketOffsets = bucketOffsets;
+            this.ids = ids;
+            this.maxLength = maxLength;
+        }
+
+        /** Builds the block of the urls in UTF-8, they are sorted by the block, a url must not repeat. */
+        static FrontCodedBlock build(List<byte[]> urls, List<Integer> ids) {
+            Integer[] order = new Integer[urls.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> compare(urls.get(a), 0, urls.get(a).length, urls.get(b)));
+
+            int[] sortedIds = new int[order.length];
+            int[] offsets = new int[(order.length + BUCKET_SIZE - 1) / BUCKET_SIZE];
+            ByteArrayBuilder builder = new ByteArrayBuilder();
+            int maxLength = 0;
+            byte[] previous = null;
+            for (int i = 0; i < order.length; i++) {
+                byte[] url = urls.get(order[i]);
+                sortedIds[i] = ids.get(order[i]);
+                maxLength = Math.max(maxLength, url.length);
+                if (i % BUCKET_SIZE == 0) {
+                    offsets[i / BUCKET_SIZE] = builder.size();
+                    builder.writeVarInt(url.length);
+                    builder.write(url, 0, url.length);
+                } else {
+                    int shared = sharedPrefix(previous, url);
+                    builder.writeVarInt(shared);
+                    builder.writeVarInt(url.length - shared);
+                    builder.write(url, shared, url.length - shared);
+                }
+                previous = url;
+            }
+            return new FrontCodedBlock(builder.toByteArray(), offsets, sortedIds, maxLength);
+        }
+
+        int size() {
+            return ids.length;
+        }
+
+        long getByteSize() {
+            return data.length + 4L * bucketOffsets.length + 4L * ids.length;
+        }
+
+        /** Returns the id of the url, 0 if it is not in the block. */
+        int getId(byte[] url) {
+            if (ids.length == 0 || url.length > maxLength) {
+                return 0;
+            }
+            // last bucket whose first url is not greater than the url
+            int low = 0;
+            int high = bucketOffsets.length - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (compareHead(middle, url) <= 0) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+
+            // only the bytes up to the length of the url are needed to compare the urls of the bucket with it,
+            // a longer url with the same prefix is greater
+            byte[] current = SCRATCH.get();
+            if (current.length < url.length) {
+                current = new byte[Math.max(url.length, 2 * current.length)];
+                SCRATCH.set(current);
+            }
+            int[] position = { bucketOffsets[low] };
+            int length = readVarInt(position);
+            System.arraycopy(data, position[0], current, 0, Math.min(length, url.length));
+            position[0] += length;
+            int end = Math.min(ids.length, (low + 1) * BUCKET_SIZE);
+            for (int i = low * BUCKET_SIZE; i < end; i++) {
+                if (i > low * BUCKET_SIZE) {
+                    int shared = readVarInt(position);
+                    int suffix = readVarInt(position);
+                    if (shared < url.length) {
+                        System.arraycopy(data, position[0], current, shared, Math.min(suffix, url.length - shared));
+                    }
+                    position[0] += suffix;
+                    length = shared + suffix;
+                }
+                int cmp = compare(current, 0, Math.min(length, url.length), url);
+                if (cmp == 0 && length > url.length) {
+                    return 0;
+                }
+                if (cmp == 0) {
+                    return ids[i];
+                } else if (cmp > 0) {
+                    return 0;
+                }
+            }
+            return 0;
+        }
+
+        /** Adds the urls with their ids in the sorted order, the buckets are decoded once, one after another. */
+        void decode(List<byte[]> urls, List<Integer> ids) {
+            byte[] current = new byte[maxLength];
+            int[] position = { 0 };
+            int length = 0;
+            for (int i = 0; i < this.ids.length; i++) {
+                if (i % BUCKET_SIZE == 0) {
+                    length = readVarInt(position);
+                    System.arraycopy(data, position[0], current, 0, length);
+                    position[0] += length;
+                } else {
+                    int shared = readVarInt(position);
+                    int suffix = readVarInt(position);
+                    System.arraycopy(data, position[0], current, shared, suffix);
+                    position[0] += suffix;
+                    length = shared + suffix;
+                }
+                urls.add(Arrays.copyOf(current, length));
+                ids.add(this.ids[i]);
+            }
+        }
+
+        private int compareHead(int bucket, byte[] url) {
+            int[] position = { bucketOffsets[bucket] };
+            int length = readVarInt(position);
+            return compare(data, position[0], position[0] + length, url);
+        }
+
+        private int readVarInt(int[] position) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[position[0]++];
+                value |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+
+        /** Compares the bytes from..to of the array with the url as unsigned bytes. */
+        private static int compare(byte[] array, int from, int to, byte[] url) {
+            int length = Math.min(to - from, url.length);
+            for (int i = 0; i < length; i++) {
+                int cmp = (array[from + i] & 0xff) - (url[i] & 0xff);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return (to - from) - url.length;
+        }
+
+        private static int sharedPrefix(byte[] a, byte[] b) {
+            int length = Math.min(a.length, b.length);
+            int i = 0;
+            while (i < length && a[i] == b[i]) {
+                i++;
+            }
+            return i;
+        }
+    }
+
+    /** Growing byte array, like ByteArrayOutputStream without the synchronization. */
+    private static final class ByteArrayBuilder {
+        private byte[] bytes = new byte[1024];
+        private int size;
+
+        void write(byte[] source, int offset, int length) {
+            ensureCapacity(length);
+            System.arraycopy(source, offset, bytes, size, length);
+            size += length;
+        }
+
+        void writeVarInt(int value) {
+            ensureCapacity(5);
+            while ((value & ~0x7f) != 0) {
+                bytes[size++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        int size() {
+            return size;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+
+        private void ensureCapacity(int length) {
+            if (size + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.lingea.documentstorage.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.jpountz.lz4.LZ4BlockOutputStream;
+
+/**
+ * Encodings of the records in the document storage.
+ * The id of the codec is stored in the index entry of every record, so it must never change.
+ * The id {@link IndexEntry#CHUNKED_ID} is taken by the chunked records, which are not encoded by a codec.
+ */
+public enum Codec {
+    NONE(0) {
+        @Override
+        public OutputStream newEncoder(OutputStream out, CompressionDictionary dictionary) {
+            return out;
+        }
+
+        @Override
+        public InputStream newDecoder(InputStream in, DictionaryStore dictionaries) {
+            return in;
+        }
+
+        @Override
+        public byte[] encode(byte[] data, CompressionDictionary dictionary) {
+            return data;
+        }
+
+        @Override
+        public byte[] decode(byte[] data, DictionaryStore dictionaries) {
+            return data;
+        }
+    },
+    /** zlib stream, slower but with good compression ratio */
+    DEFLATE(1) {
+        @Override
+        public OutputStream newEncoder(OutputStream out, CompressionDictionary dictionary) {
+            return new DeflaterOutputStream(out);
+        }
+
+        @Override
+        public InputStream newDecoder(InputStream in, DictionaryStore dictionaries) {
+            return new InflaterInputStream(in);
+        }
+    },
+    /** LZ4 blocks, very fast with a lower compression ratio */
+    LZ4(2) {
+        @Override
+        public OutputStream newEncoder(OutputStream out, CompressionDictionary dictionary) {
+            return new LZ4BlockOutputStream(out);
+        }
+
+        @Override
+        public InputStream newDecoder(InputStream in, DictionaryStore dictionaries) {
+            return new LZ4BlockInputStream(in);
+        }
+    },
+    /**
+     * raw Deflate against a trained dictionary, see {@link CompressionDictionary}. The record starts
+     * with the version of the dictionary, version 0 stands for a record compressed without a dictionary.
+     */
+    DICTIONARY(3) {
+        @Override
+        public OutputStream newEncoder(OutputStream out, CompressionDictionary dictionary) throws IOException {
+            CompressionDictionary used = dictionary == null ? CompressionDictionary.EMPTY : dictionary;
+            byte[] version = new byte[5];
+            out.write(version, 0, CompressionDictionary.writeVarint(version, 0, used.getVersion()));
+            Deflater deflater = used.newDeflater();
+            return new DeflaterOutputStream(out, deflater) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        deflater.end();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public InputStream newDecoder(InputStream in, DictionaryStore dictionaries) throws IOException {
+            CompressionDictionary dictionary = resolve(CompressionDictionary.readVersion(in), dictionaries);
+            Inflater inflater = dictionary.newInflater();
+            // raw inflate may need an extra byte after the compressed data
+            InputStream padded = new SequenceInputStream(in, new ByteArrayInputStream(new byte[1]));
+            return new InflaterInputStream(padded, inflater) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        inflater.end();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public byte[] encode(byte[] data, CompressionDictionary dictionary) {
+            return (dictionary == null ? CompressionDictionary.EMPTY : dictionary).encode(data);
+        }
+
+        @Override
+        public byte[] decode(byte[] data, DictionaryStore dictionaries) throws IOException {
+            int version = CompressionDictionary.readVersion(data);
+            return resolve(version, dictionaries).decode(data, CompressionDictionary.versionLength(version));
+        }
+
+        private CompressionDictionary resolve(int version, DictionaryStore dictionaries) throws IOException {
+            if (version == 0) {
+                return CompressionDictionary.EMPTY;
+            }
+            if (dictionaries == null) {
+                throw new IOException("Record is encoded with dictionary " + version + ", but no dictionaries are given");
+            }
+            return dictionaries.get(version);
+        }
+    };
+
+    private final int id;
+
+    Codec(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /** Returns the codec with the id stored in the index. */
+    public static Codec getById(int id) {
+        for (Codec codec : values()) {
+            if (codec.id == id) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("Unknown codec " + id);
+    }
+
+    /** Returns a stream encoding the data written into it, closing it finishes the encoding and closes the target. */
+    public OutputStream newEncoder(OutputStream out) throws IOException {
+        return newEncoder(out, null);
+    }
+
+    /**
+     * Returns a stream encoding the data written into it, closing it finishes the encoding and closes the target.
+     * @param dictionary - dictionary used by {@link #DICTIONARY}, ignored by the other codecs, may be null
+     */
+    public abstract OutputStream newEncoder(OutputStream out, CompressionDictionary dictionary) throws IOException;
+
+    /** Returns a stream decoding the encoded source stream. */
+    public InputStream newDecoder(InputStream in) throws IOException {
+        return newDecoder(in, null);
+    }
+
+    /**
+     * Returns a stream decoding the encoded source stream.
+     * @param dictionaries - dictionaries the records of {@link #DICTIONARY} refer to, ignored by the other codecs
+     */
+    public abstract InputStream newDecoder(InputStream in, DictionaryStore dictionaries) throws IOException;
+
+    /** Encodes the whole record. */
+    public byte[] encode(byte[] data) throws IOException {
+        return encode(data, null);
+    }
+
+    /** Encodes the whole record, see {@link #newEncoder(OutputStream, CompressionDictionary)}. */
+    public byte[] encode(byte[] data, CompressionDictionary dictionary) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(data.length / 2 + 64);
+        try (OutputStream out = newEncoder(encoded, dictionary)) {
+            out.write(data);
+        }
+        return encoded.toByteArray();
+    }
+
+    /** Decodes the whole record. */
+    public byte[] decode(byte[] data) throws IOException {
+        return decode(data, null);
+    }
+
+    /** Decodes the whole record, see {@link #newDecoder(InputStream, DictionaryStore)}. */
+    public byte[] decode(byte[] data, DictionaryStore dictionaries) throws IOException {
+        try (InputStream in = newDecoder(new ByteArrayInputStream(data), dictionaries)) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.lingea.documentstorage.io;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Selects the codec a record is stored with, based on its content type.
+ */
+public class CodecPolicy {
+    /** Content types which are compressed already, compressing them again only wastes CPU. */
+    private static final String[] COMPRESSED_CONTENT_TYPES = {
+        "image/", "video/", "audio/", "font/woff",
+        "application/zip", "application/gzip", "application/x-gzip", "application/x-bzip2",
+        "application/x-xz", "application/x-7z-compressed", "application/x-rar-compressed",
+        "application/pdf", "application/vnd.openxmlformats-officedocument.",
+        "application/vnd.oasis.opendocument.", "application/epub+zip"
+    };
+
+    private final Codec defaultCodec;
+    private final Map<String, Codec> contentTypeCodecs = new HashMap<>();
+
+    public CodecPolicy(Codec defaultCodec) {
+        this.defaultCodec = defaultCodec;
+    }
+
+    /** Policy storing every record as it is. */
+    public static CodecPolicy uncompressed() {
+        return new CodecPolicy(Codec.NONE);
+    }
+
+    /** Policy compressing every record with the codec, except the content types which are compressed already. */
+    public static CodecPolicy compressed(Codec codec) {
+        CodecPolicy policy = new CodecPolicy(codec);
+        for (String contentType : COMPRESSED_CONTENT_TYPES) {
+            policy.withContentType(contentType, Codec.NONE);
+        }
+        return policy;
+    }
+
+    /**
+     * Uses the codec for the content types starting with the prefix.
+     * @param contentTypePrefix - e.g. "text/" or "application/json"
+     * @param codec - codec for the matching content types
+     * @return - this policy
+     */
+    public CodecPolicy withContentType(String contentTypePrefix, Codec codec) {
+        contentTypeCodecs.put(contentTypePrefix.toLowerCase(Locale.ROOT), codec);
+        return this;
+    }
+
+    /**
+     * Returns the codec for a record with the content type, the longest matching prefix wins.
+     * The content type may be null.
+     */
+    public Codec select(String contentType) {
+        Codec selected = defaultCodec;
+        if (contentType != null) {
+            String normalized = contentType.trim().toLowerCase(Locale.ROOT);
+            int matchedLength = -1;
+            for (Map.Entry<String, Codec> entry : contentTypeCodecs.entrySet()) {
+                if (normalized.startsWith(entry.getKey()) && entry.getKey().length() > matchedLength) {
+                    selected = entry.getValue();
+                    matchedLength = entry.getKey().length();
+                }
+            }
+        }
+        return selected;
+    }
+
+    public Codec getDefaultCodec() {
+        return defaultCodec;
+    }
+}
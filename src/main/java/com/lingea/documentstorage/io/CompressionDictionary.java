@@ -0,0 +1,289 @@
+package com.lingea.documentstorage.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Preset dictionary for compressing short records, such as sentences and paragraphs,
+ * which are too small to be compressed on their own. The dictionary is trained from
+ * a sample of records and every record is compressed with raw Deflate against it.
+ * An encoded record starts with the version of the dictionary as a varint.
+ */
+public class CompressionDictionary {
+    /** Length of the substrings whose frequency is counted during training. */
+    private static final int GRAM_LENGTH = 6;
+    /** Length of the sample pieces the dictionary is assembled from. */
+    private static final int SEGMENT_LENGTH = 32;
+    /** Version 0 of the records compressed without a dictionary. */
+    static final CompressionDictionary EMPTY = new CompressionDictionary(0, null, new byte[0]);
+
+    private static final ThreadLocal<Deflater> DEFLATERS =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_COMPRESSION, true));
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private final int version;
+    private final String language;
+    private final byte[] dictionary;
+
+    public CompressionDictionary(int version, String language, byte[] dictionary) {
+        this.version = version;
+        this.language = language;
+        this.dictionary = dictionary;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /** Language the dictionary has been trained for, null for a dictionary used for any language. */
+    public String getLanguage() {
+        return language;
+    }
+
+    public byte[] getDictionary() {
+        return dictionary;
+    }
+
+    /** Compresses the record against the dictionary. */
+    public byte[] encode(byte[] data) {
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        setDictionary(deflater);
+        deflater.setInput(data);
+        deflater.finish();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length + 16);
+        byte[] buffer = new byte[Math.max(64, data.length + 16)];
+        out.write(buffer, 0, writeVarint(buffer, 0, version));
+        while (!deflater.finished()) {
+            int count = deflater.deflate(buffer);
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decompresses a record encoded with this dictionary.
+     * @param data - encoded record.
+     * @param offset - position of the compressed data in the record, after the version.
+     * @return - bytes of the record
+     * @throws IOException
+     */
+    public byte[] decode(byte[] data, int offset) throws IOException {
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        setDictionary(inflater);
+        // raw inflate may need an extra byte after the compressed data
+        byte[] input = Arrays.copyOfRange(data, offset, data.length + 1);
+        inflater.setInput(input);
+
+        byte[] result = new byte[Math.max(64, input.length * 4)];
+        int length = 0;
+        try {
+            while (!inflater.finished()) {
+                if (length == result.length) {
+                    result = Arrays.copyOf(result, result.length * 2);
+                }
+                int count = inflater.inflate(result, length, result.length - length);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated record encoded with dictionary " + version);
+                }
+                length += count;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted record encoded with dictionary " + version, e);
+        }
+        return Arrays.copyOf(result, length);
+    }
+
+    /** Returns a new raw deflater set up with the dictionary, the caller has to end it. */
+    Deflater newDeflater() {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        setDictionary(deflater);
+        return deflater;
+    }
+
+    /** Returns a new raw inflater set up with the dictionary, the caller has to end it. */
+    Inflater newInflater() {
+        Inflater inflater = new Inflater(true);
+        setDictionary(inflater);
+        return inflater;
+    }
+
+    private void setDictionary(Deflater deflater) {
+        if (dictionary.length > 0) {
+            deflater.setDictionary(dictionary);
+        }
+    }
+
+    private void setDictionary(Inflater inflater) {
+        if (dictionary.length > 0) {
+            inflater.setDictionary(dictionary);
+        }
+    }
+
+    /**
+     * Trains a dictionary from a sample of records. The sample is cut into short pieces,
+     * the pieces containing the most frequent substrings are picked greedily and the best
+     * ones are placed at the end of the dictionary, where Deflate reaches them most cheaply.
+     * @param samples - sample of the records.
+     * @param dictionarySize - maximal byte size of the dictionary.
+     * @return - content of the dictionary
+     */
+    public static byte[] train(List<byte[]> samples, int dictionarySize) {
+        Map<Long, int[]> gramCounts = new HashMap<>();
+        for (byte[] sample : samples) {
+            for (int i = 0; i + GRAM_LENGTH <= sample.length; i++) {
+                gramCounts.computeIfAbsent(gramKey(sample, i), k -> new int[1])[0]++;
+            }
+        }
+
+        PriorityQueue<Segment> queue = new PriorityQueue<>();
+        for (byte[] sample : samples) {
+            for (int start = 0; start < sample.length; start += SEGMENT_LENGTH) {
+                int end = Math.min(sample.length, start + SEGMENT_LENGTH);
+                Segment segment = new Segment(sample, start, end);
+                segment.score = score(segment, gramCounts);
+                if (segment.score > 0) {
+                    queue.add(segment);
+                }
+            }
+        }
+
+        // lazy greedy selection, the score of a segment only decreases as other segments are selected
+        List<Segment> selected = new ArrayList<>();
+        int size = 0;
+        while (!queue.isEmpty() && size < dictionarySize) {
+            Segment best = queue.poll();
+            long current = score(best, gramCounts);
+            if (current <= 0) {
+                continue;
+            }
+            if (current < best.score && !queue.isEmpty() && current < queue.peek().score) {
+                best.score = current;
+                queue.add(best);
+                continue;
+            }
+
+            for (int i = best.start; i + GRAM_LENGTH <= best.end; i++) {
+                int[] count = gramCounts.get(gramKey(best.sample, i));
+                if (count != null) {
+                    count[0] = 0;
+                }
+            }
+            selected.add(best);
+            size += best.end - best.start;
+        }
+
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream(size);
+        for (int i = selected.size() - 1; i >= 0; i--) {
+            Segment segment = selected.get(i);
+            dictionary.write(segment.sample, segment.start, segment.end - segment.start);
+        }
+        byte[] result = dictionary.toByteArray();
+        return result.length > dictionarySize
+                ? Arrays.copyOfRange(result, result.length - dictionarySize, result.length)
+                : result;
+    }
+
+    /** Reads the version of the dictionary an encoded record has been compressed with. */
+    static int readVersion(byte[] data) {
+        int version = 0;
+        for (int i = 0, shift = 0; i < data.length; i++, shift += 7) {
+            version |= (data[i] & 0x7F) << shift;
+            if ((data[i] & 0x80) == 0) {
+                return version;
+            }
+        }
+        throw new IllegalArgumentException("Record does not start with a dictionary version");
+    }
+
+    /** Reads the version of the dictionary from the start of an encoded stream. */
+    static int readVersion(InputStream in) throws IOException {
+        int version = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Record does not start with a dictionary version");
+            }
+            version |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return version;
+            }
+        }
+        throw new IOException("Record does not start with a dictionary version");
+    }
+
+    /** Returns the byte length of the version at the start of an encoded record. */
+    static int versionLength(int version) {
+        int length = 1;
+        while ((version >>>= 7) != 0) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Writes the value in 7-bit groups, the lowest first, e.g. the version of the dictionary at the start
+     * of an encoded record. The buffer must have room for 5 bytes.
+     * @return - offset after the value
+     */
+    static int writeVarint(byte[] buffer, int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[offset++] = (byte) value;
+        return offset;
+    }
+
+    private static long score(Segment segment, Map<Long, int[]> gramCounts) {
+        long score = 0;
+        for (int i = segment.start; i + GRAM_LENGTH <= segment.end; i++) {
+            int count = gramCounts.get(gramKey(segment.sample, i))[0];
+            // substrings seen only once do not help any other record
+            if (count > 1) {
+                score += count;
+            }
+        }
+        return score;
+    }
+
+    private static long gramKey(byte[] data, int offset) {
+        long key = 0;
+        for (int i = 0; i < GRAM_LENGTH; i++) {
+            key = (key << 8) | (data[offset + i] & 0xFF);
+        }
+        return key;
+    }
+
+    /** Piece of a sample record considered for the dictionary. */
+    private static class Segment implements Comparable<Segment> {
+        private final byte[] sample;
+        private final int start;
+        private final int end;
+        private long score;
+
+        Segment(byte[] sample, int start, int end) {
+            this.sample = sample;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int compareTo(Segment other) {
+            return Long.compare(other.score, score);
+        }
+    }
+}
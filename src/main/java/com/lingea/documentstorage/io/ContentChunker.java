@@ -0,0 +1,78 @@
+package com.lingea.documentstorage.io;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Content-defined chunker based on the FastCDC gear rolling hash.
+ * Chunk boundaries depend only on the bytes around them, so inserting or removing
+ * bytes in a document changes only the chunks around the change and the rest of
+ * the chunks are the same as in the previous version of the document.
+ * The chunks are between 2 KiB and 64 KiB long, 8 KiB on average.
+ */
+public class ContentChunker {
+    private static final int MIN_SIZE = 2 * 1024;
+    private static final int AVERAGE_SIZE = 8 * 1024;
+    private static final int MAX_SIZE = 64 * 1024;
+    /** Mask with more bits used before the average size is reached, making a cut less likely. */
+    private static final long MASK_SMALL = 0x0003590703530000L;
+    /** Mask with fewer bits used after the average size is reached, making a cut more likely. */
+    private static final long MASK_LARGE = 0x0000d90003530000L;
+
+    /** Random value of every byte, the seed must never change, otherwise stored chunks stop matching. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x4C696E676561L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * Splits the data into chunks.
+     * @param data - data between the position and the limit of the buffer, the buffer is not modified.
+     * @return - end offsets of the chunks relative to the position of the buffer
+     */
+    public int[] split(ByteBuffer data) {
+        int length = data.remaining();
+        int[] cuts = new int[length / AVERAGE_SIZE + 1];
+        int count = 0;
+        int start = 0;
+        while (start < length) {
+            int end = nextCut(data, data.position(), start, length);
+            if (count == cuts.length) {
+                cuts = Arrays.copyOf(cuts, cuts.length * 2);
+            }
+            cuts[count++] = end;
+            start = end;
+        }
+        return Arrays.copyOf(cuts, count);
+    }
+
+    private static int nextCut(ByteBuffer data, int base, int start, int length) {
+        int remaining = length - start;
+        if (remaining <= MIN_SIZE) {
+            return length;
+        }
+
+        int normal = start + Math.min(AVERAGE_SIZE, remaining);
+        int max = start + Math.min(MAX_SIZE, remaining);
+        long hash = 0;
+        int i = start + MIN_SIZE;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[data.get(base + i) & 0xFF];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < max; i++) {
+            hash = (hash << 1) + GEAR[data.get(base + i) & 0xFF];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return max;
+    }
+}
@@ -0,0 +1,115 @@
+package com.lingea.documentstorage.io;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Versioned compression dictionaries of a storage, stored beside its data file.
+ * Dictionary n is kept in the file with the suffix ".dict.%06d", a dictionary is
+ * never modified or removed once written, because records encoded with it refer
+ * to it by its version.
+ */
+public class DictionaryStore {
+    private static final int MAGIC = 0x44534443;
+    /** Key of the dictionaries used for records of any language. */
+    private static final String ANY_LANGUAGE = "";
+
+    private final String prefix;
+    private final Map<Integer, CompressionDictionary> dictionaries = new ConcurrentHashMap<>();
+    private final Map<String, CompressionDictionary> latestByLanguage = new ConcurrentHashMap<>();
+    private int lastVersion;
+
+    /**
+     * Loads all dictionaries of the storage.
+     * @param dataPath - path to the data file of the storage.
+     * @throws IOException
+     */
+    public DictionaryStore(String dataPath) throws IOException {
+        this.prefix = dataPath + ".dict";
+        for (int version = 1; Files.exists(getPath(version)); version++) {
+            CompressionDictionary dictionary = load(version);
+            dictionaries.put(version, dictionary);
+            latestByLanguage.put(languageKey(dictionary.getLanguage()), dictionary);
+            lastVersion = version;
+        }
+    }
+
+    /**
+     * Returns the newest dictionary for the language, or the newest dictionary
+     * for any language if there is none for the language.
+     * @param language - language of the record, may be null.
+     * @return - dictionary or null if no dictionary has been trained yet
+     */
+    public CompressionDictionary getLatest(String language) {
+        CompressionDictionary dictionary = latestByLanguage.get(languageKey(language));
+        return dictionary != null ? dictionary : latestByLanguage.get(ANY_LANGUAGE);
+    }
+
+    /**
+     * Stores a new version of the dictionary for the language, it is used for
+     * the records saved from now on.
+     * @param language - language of the dictionary, null for any language.
+     * @param content - content of the dictionary, see {@link CompressionDictionary#train}.
+     * @return - the stored dictionary
+     * @throws IOException
+     */
+    public synchronized CompressionDictionary add(String language, byte[] content) throws IOException {
+        CompressionDictionary dictionary = new CompressionDictionary(lastVersion + 1, language, content);
+
+        Path path = getPath(dictionary.getVersion());
+        Path temporary = Path.of(path + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temporary))) {
+            out.writeInt(MAGIC);
+            out.writeInt(dictionary.getVersion());
+            out.writeUTF(languageKey(language));
+            out.writeInt(content.length);
+            out.write(content);
+        }
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+
+        lastVersion = dictionary.getVersion();
+        dictionaries.put(dictionary.getVersion(), dictionary);
+        latestByLanguage.put(languageKey(language), dictionary);
+        return dictionary;
+    }
+
+    /**
+     * Returns the dictionary of the version.
+     * @throws IOException if the dictionary is missing
+     */
+    public CompressionDictionary get(int version) throws IOException {
+        CompressionDictionary dictionary = dictionaries.get(version);
+        if (dictionary == null) {
+            throw new IOException("Dictionary " + getPath(version) + " is missing");
+        }
+        return dictionary;
+    }
+
+    private CompressionDictionary load(int version) throws IOException {
+        try (InputStream in = Files.newInputStream(getPath(version));
+                DataInputStream data = new DataInputStream(in)) {
+            if (data.readInt() != MAGIC || data.readInt() != version) {
+                throw new IOException(getPath(version) + " is not a compression dictionary");
+            }
+            String language = data.readUTF();
+            byte[] content = new byte[data.readInt()];
+            data.readFully(content);
+            return new CompressionDictionary(version, language.isEmpty() ? null : language, content);
+        }
+    }
+
+    private Path getPath(int version) {
+        return Path.of(String.format("%s.%06d", prefix, version));
+    }
+
+    private static String languageKey(String language) {
+        return language == null ? ANY_LANGUAGE : language;
+    }
+}
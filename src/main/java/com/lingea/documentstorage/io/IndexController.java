@@ -1,6 +1,7 @@
 package com.lingea.documentstorage.io;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Class for manipulating the document storage index.
@@ -32,6 +33,19 @@ public class IndexController extends AbstractController {
         return getMetaFromIndex(computeLengthPosition(documentId - 1));
     }
 
+    /**
+     * Get both the byte offset and the byte length of the document with a single read.
+     * @param documentId - id of the document.
+     * @return - location of the document in the storage.
+     * @throws IOException
+     */
+    public IndexEntry getEntry(long documentId) throws IOException {
+        long position = computeOffsetPosition(documentId - 1);
+        byte[] slot = FileUtils.readBytesFromRAF(this.filename, position, position + 2 * LENGTH_OF_LONG);
+        ByteBuffer buffer = ByteBuffer.wrap(slot);
+        return IndexEntry.unpack(buffer.getLong(0), buffer.getLong((int) LENGTH_OF_LONG));
+    }
+
     /**
      * Function for writing document metadata to the index.
      * @param offset - byte offset of the document in the storage.
@@ -39,8 +53,27 @@ public class IndexController extends AbstractController {
      * @throws IOException
      */
     public void writeToIndex(long id, long offset, long length) throws IOException {
-        FileUtils.writeBytesToRAF(this.filename, computeOffsetPosition(id - 1), Cast.longToByteArray(offset));
-        FileUtils.writeBytesToRAF(this.filename, computeLengthPosition(id - 1), Cast.longToByteArray(length));
+        ByteBuffer slot = ByteBuffer.allocate((int) (2 * LENGTH_OF_LONG));
+        slot.putLong(offset).putLong(length);
+        FileUtils.writeBytesToRAF(this.filename, computeOffsetPosition(id - 1), slot.array());
+    }
+
+    /** Writes the modified slots to the disk, the plain index does not buffer any. */
+    public void force() throws IOException {
+    }
+
+    /** Releases resources held by the controller, the plain index does not hold any. */
+    public void close() throws IOException {
+    }
+
+    /**
+     * Function for writing the location of the document to the index.
+     * @param id - id of the document.
+     * @param entry - location of the document in the storage.
+     * @throws IOException
+     */
+    public void writeToIndex(long id, IndexEntry entry) throws IOException {
+        writeToIndex(id, entry.getStoredOffset(), entry.getLength());
     }
 
     /** Computes byte offset of the document offset in the index. */
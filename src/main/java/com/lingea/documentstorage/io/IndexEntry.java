@@ -0,0 +1,104 @@
+package com.lingea.documentstorage.io;
+
+/**
+ * Location of a single record in the document storage, as stored in the index.
+ * The index keeps the segment number in bits 40-55 of the stored offset,
+ * entries written before the data files were segmented decode as segment 0.
+ * The highest bit of the stored offset flags an encoded record, the id of its
+ * codec is kept in the remaining bits of the highest byte. Chunked records, which are lists of chunk ids
+ * reassembled by the storage, are flagged by the id {@link #CHUNKED_ID} in place of a codec.
+ */
+public class IndexEntry {
+    /** Number of low bits of the stored offset holding the byte offset within the segment. */
+    static final int SEGMENT_SHIFT = 40;
+    /** Largest possible size of a single segment. */
+    public static final long MAX_SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+    /** Largest possible segment number. */
+    public static final int MAX_SEGMENT = 0xFFFF;
+    private static final long ENCODED_FLAG = 1L << 63;
+    private static final int CODEC_SHIFT = 56;
+    private static final int CODEC_MASK = 0x7F;
+    /** Id stored in place of the codec of chunked records, no {@link Codec} may use it. */
+    public static final int CHUNKED_ID = 4;
+
+    private final int segment;
+    private final long offset;
+    private final long length;
+    private final Codec codec;
+    private final boolean chunked;
+
+    public IndexEntry(int segment, long offset, long length) {
+        this(segment, offset, length, Codec.NONE);
+    }
+
+    public IndexEntry(int segment, long offset, long length, Codec codec) {
+        this(segment, offset, length, codec, false);
+    }
+
+    private IndexEntry(int segment, long offset, long length, Codec codec, boolean chunked) {
+        this.segment = segment;
+        this.offset = offset;
+        this.length = length;
+        this.codec = codec;
+        this.chunked = chunked;
+    }
+
+    /** Decodes the entry from the offset and length stored in the index. */
+    public static IndexEntry unpack(long storedOffset, long length) {
+        int segment = (int) ((storedOffset >>> SEGMENT_SHIFT) & MAX_SEGMENT);
+        Codec codec = Codec.NONE;
+        boolean chunked = false;
+        if ((storedOffset & ENCODED_FLAG) != 0) {
+            int codecId = (int) (storedOffset >>> CODEC_SHIFT) & CODEC_MASK;
+            chunked = codecId == CHUNKED_ID;
+            codec = chunked ? Codec.NONE : Codec.getById(codecId);
+        }
+        return new IndexEntry(segment, storedOffset & (MAX_SEGMENT_SIZE - 1), length, codec, chunked);
+    }
+
+    /** Encodes the codec, the segment and the offset into the offset stored in the index. */
+    public long getStoredOffset() {
+        long stored = ((long) segment << SEGMENT_SHIFT) | offset;
+        if (chunked) {
+            stored |= ENCODED_FLAG | ((long) CHUNKED_ID << CODEC_SHIFT);
+        } else if (codec != Codec.NONE) {
+            stored |= ENCODED_FLAG | ((long) codec.getId() << CODEC_SHIFT);
+        }
+        return stored;
+    }
+
+    /** Returns the same location with the record encoded by the codec. */
+    public IndexEntry withCodec(Codec codec) {
+        return new IndexEntry(segment, offset, length, codec, false);
+    }
+
+    /** Returns the same location with the record holding the list of chunk ids of a chunked record. */
+    public IndexEntry asChunked() {
+        return new IndexEntry(segment, offset, length, Codec.NONE, true);
+    }
+
+    /** Number of the data file segment holding the record. */
+    public int getSegment() {
+        return segment;
+    }
+
+    /** Byte offset of the record in its segment. */
+    public long getOffset() {
+        return offset;
+    }
+
+    /** Byte length of the record in the storage. */
+    public long getLength() {
+        return length;
+    }
+
+    /** Codec the record is encoded with, {@link Codec#NONE} for the chunk list of a chunked record. */
+    public Codec getCodec() {
+        return codec;
+    }
+
+    /** Whether the record is a list of chunk ids to be reassembled from the chunk storage. */
+    public boolean isChunked() {
+        return chunked;
+    }
+}
@@ -0,0 +1,153 @@
+package com.lingea.documentstorage.io;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Index controller which keeps the (offset, length) slot array memory mapped.
+ * The index file is mapped in fixed size chunks, new chunks are mapped as the
+ * ids advance, so a lookup is a plain memory access instead of a file open.
+ * Mapping a chunk extends the file to the end of the chunk, the file is cut back
+ * to the slots in use when the controller is closed.
+ * The file format is the same as the one of {@link IndexController}.
+ */
+public class MappedIndexController extends IndexController {
+    private static final int SLOT_SIZE = 16;
+    private static final int SLOTS_PER_CHUNK = 1 << 16;
+    private static final long CHUNK_SIZE = (long) SLOTS_PER_CHUNK * SLOT_SIZE;
+
+    private final FileChannel channel;
+    private volatile MappedByteBuffer[] chunks;
+    /** Size of the file without the padding of the last chunk. */
+    private final AtomicLong usedSize;
+    /** Lowest slot written since the last {@link #force()}, Long.MAX_VALUE if none has been. */
+    private final AtomicLong lowestDirtySlot = new AtomicLong(Long.MAX_VALUE);
+
+    public MappedIndexController(String filename) throws IOException {
+        super(filename);
+        this.channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.usedSize = new AtomicLong(channel.size());
+
+        int chunkCount = (int) ((channel.size() + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        MappedByteBuffer[] mapped = new MappedByteBuffer[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            mapped[i] = mapChunk(i);
+        }
+        this.chunks = mapped;
+    }
+
+    @Override
+    public long getOffset(long documentId) throws IOException {
+        long slot = documentId - 1;
+        MappedByteBuffer chunk = getChunk(slot);
+        return chunk == null ? 0 : chunk.getLong(slotPosition(slot));
+    }
+
+    @Override
+    public long getLength(long documentId) throws IOException {
+        long slot = documentId - 1;
+        MappedByteBuffer chunk = getChunk(slot);
+        return chunk == null ? 0 : chunk.getLong(slotPosition(slot) + 8);
+    }
+
+    @Override
+    public IndexEntry getEntry(long documentId) throws IOException {
+        long slot = documentId - 1;
+        MappedByteBuffer chunk = getChunk(slot);
+        if (chunk == null) {
+            return new IndexEntry(0, 0, 0);
+        }
+        int position = slotPosition(slot);
+        return IndexEntry.unpack(chunk.getLong(position), chunk.getLong(position + 8));
+    }
+
+    @Override
+    public void writeToIndex(long id, long offset, long length) throws IOException {
+        long slot = id - 1;
+        MappedByteBuffer chunk = getChunk(slot);
+        if (chunk == null) {
+            chunk = grow(slot);
+        }
+        int position = slotPosition(slot);
+        chunk.putLong(position, offset);
+        chunk.putLong(position + 8, length);
+
+        long end = (slot + 1) * SLOT_SIZE;
+        long size;
+        while (end > (size = usedSize.get()) && !usedSize.compareAndSet(size, end)) {
+            // retried until the size covers the slot
+        }
+        long dirty;
+        while (slot < (dirty = lowestDirtySlot.get()) && !lowestDirtySlot.compareAndSet(dirty, slot)) {
+            // retried until the lowest dirty slot is not above the slot
+        }
+    }
+
+    /**
+     * Writes the slots modified since the last call to the disk. Only the chunks from the one
+     * of the lowest modified slot on are written, which are the last few as the ids advance.
+     */
+    @Override
+    public void force() {
+        long slot = lowestDirtySlot.getAndSet(Long.MAX_VALUE);
+        if (slot == Long.MAX_VALUE) {
+            return;
+        }
+        MappedByteBuffer[] mapped = chunks;
+        for (int i = (int) (slot / SLOTS_PER_CHUNK); i < mapped.length; i++) {
+            mapped[i].force();
+        }
+    }
+
+    /** Writes the modified slots to the disk and cuts the padding of the last chunk off the file. */
+    @Override
+    public void close() throws IOException {
+        force();
+        try {
+            if (channel.size() > usedSize.get()) {
+                channel.truncate(usedSize.get());
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /** Returns the mapped chunk containing the slot, or null if it has not been mapped yet. */
+    private MappedByteBuffer getChunk(long slot) {
+        if (slot < 0) {
+            throw new IllegalArgumentException("Invalid document id " + (slot + 1));
+        }
+        MappedByteBuffer[] mapped = chunks;
+        long index = slot / SLOTS_PER_CHUNK;
+        return index < mapped.length ? mapped[(int) index] : null;
+    }
+
+    /** Maps all chunks up to the one containing the slot. */
+    private synchronized MappedByteBuffer grow(long slot) throws IOException {
+        int index = (int) (slot / SLOTS_PER_CHUNK);
+        MappedByteBuffer[] mapped = chunks;
+        if (index < mapped.length) {
+            return mapped[index];
+        }
+
+        MappedByteBuffer[] grown = new MappedByteBuffer[index + 1];
+        System.arraycopy(mapped, 0, grown, 0, mapped.length);
+        for (int i = mapped.length; i < grown.length; i++) {
+            grown[i] = mapChunk(i);
+        }
+        chunks = grown;
+        return grown[index];
+    }
+
+    private MappedByteBuffer mapChunk(int index) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_WRITE, index * CHUNK_SIZE, CHUNK_SIZE);
+    }
+
+    private static int slotPosition(long slot) {
+        return (int) (slot % SLOTS_PER_CHUNK) * SLOT_SIZE;
+    }
+}
@@ -1,40 +1,271 @@
 package com.lingea.documentstorage.io;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
 import java.io.IOException;
-import java.util.List;
-import java.util.Map;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
 
-/** Class for reading and writing document storage metadata. */
+/**
+ * Class for reading and writing document storage metadata.
+ * The metadata are appended to a binary file of length-prefixed records (see {@link MetaRecord}),
+ * the location of the record of every id is kept in an index next to the file, so the metadata
+ * of a single record are read with one index lookup and one positional read.
+ * A metadata file in the former tab-separated text format is converted when opened,
+ * the original is kept with the suffix ".txt".
+ */
 public class MetaController extends AbstractController {
+    private static final int MAGIC = 0x44534D54;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int MIN_RECORD_SIZE = 4 + 8 + 8 + 4 * 4;
+    private static final int ID_POSITION = 4;
+    private static final int LAST_CHANGE_TIME_POSITION = 4 + 8;
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+    private final StorageController storageController;
+    private final MappedIndexController indexController;
 
     public MetaController(String filename) throws IOException {
         super(filename);
+        this.indexController = new MappedIndexController(filename + ".idx");
+
+        Path path = Path.of(filename);
+        if (Files.size(path) > 0 && !hasHeader(path)) {
+            convertText(path);
+        }
+
+        this.storageController = new StorageController(filename);
+        if (storageController.getSize() == 0) {
+            storageController.write(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).array());
+        }
     }
 
     /** Function for writing indexing metadata to a file. */
+    public void writeMeta(long id, String meta, String indexer, String contentType, long lastChangeTime, String url)
+            throws IOException {
+        MetaRecord record = new MetaRecord(id, meta, indexer, contentType, lastChangeTime, url);
+        // the record is written before the index, and forced before it by force(),
+        // so the index never points to unwritten data
+        IndexEntry entry = storageController.write(record.encode());
+        indexController.writeToIndex(id, entry);
+    }
+
+    /** Function for writing indexing metadata to a file, the id and the time have to be numbers. */
     public void writeMeta(String id, String meta, String indexer, String contentType, String lastChangeTime, String url)
             throws IOException {
-        String metaString = String
-                .format("%s\t%s\t%s\t%s\t%s\t%s",
-                        id, meta, indexer, contentType, lastChangeTime, url);
-        FileUtils.appendToFile(this.filename, metaString);
+        writeMeta(Long.parseLong(id), meta, indexer, contentType, Long.parseLong(lastChangeTime), url);
     }
 
-    /** Function for getting all metadata from the .meta file. */
+    /**
+     * Function for getting the metadata of a single record.
+     * @param id - id of the record.
+     * @return - metadata of the record, null if no metadata have been written for the id
+     * @throws IOException
+     */
+    public MetaRecord getMeta(long id) throws IOException {
+        IndexEntry entry = indexController.getEntry(id);
+        if (entry.getLength() == 0) {
+            return null;
+        }
+        return new MetaRecord().decode(ByteBuffer.wrap(storageController.read(entry)));
+    }
+
+    /**
+     * Function for getting all metadata from the .meta file.
+     * All records are held in memory, large files should be read with {@link #forEachMeta} instead.
+     */
     public Map<String, Map<String, String>> getAllMeta() throws IOException {
-        List<String> lines = FileUtils.readLinesFromFile(filename);
         Map<String, Map<String, String>> result = new HashMap<>();
-        for (String line : lines) {
-            String[] fields = line.split("\t");
-            Map<String, String> meta = new HashMap<>();
-            meta.put("meta", fields[1]);
-            meta.put("indexer", fields[2]);
-            meta.put("contentType", fields[3]);
-            meta.put("lastChangeTime", fields[4]);
-            meta.put("url", fields[5]);
-            result.put(fields[0], meta);
-        }
+        forEachMeta(MetaFilter.all(), record -> result.put(Long.toString(record.getId()), record.toMap()));
         return result;
     }
-}
\ No newline at end of file
+
+    /**
+     * Reads the .meta file sequentially and passes the records accepted by the filter to the visitor.
+     * A single record object is reused for all rows, the visitor must copy the fields it wants to keep.
+     * Records written while the file is being read may or may not be visited. Records the index does not point to,
+     * i.e. records replaced by a later write of the same id or written by a transaction which has been retried,
+     * are skipped. Space reserved by a write which has not been finished is skipped too.
+     * @param filter - filter of the records.
+     * @param visitor - consumer of the accepted records.
+     * @throws IOException
+     */
+    public void forEachMeta(MetaFilter filter, Consumer<MetaRecord> visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ)) {
+            long size = channel.size();
+            DataInputStream in = open(channel, 0);
+            in.readFully(new byte[HEADER_SIZE]);
+            MetaRecord record = new MetaRecord();
+            byte[] buffer = new byte[1024];
+            ByteBuffer row = ByteBuffer.wrap(buffer);
+            long offset = HEADER_SIZE;
+            while (offset + 4 <= size) {
+                int length = in.readInt();
+                if (length < MIN_RECORD_SIZE || length > size - offset) {
+                    // space reserved by a write which has not been finished, e.g. because of a crash,
+                    // the records after it are found by their index entries
+                    offset = findRecord(channel, offset + 1, size);
+                    if (offset < 0) {
+                        break;
+                    }
+                    in = open(channel, offset);
+                    continue;
+                }
+                if (buffer.length < length) {
+                    buffer = new byte[Math.max(length, 2 * buffer.length)];
+                    row = ByteBuffer.wrap(buffer);
+                }
+                row.clear();
+                row.putInt(0, length);
+                in.readFully(buffer, 4, length - 4);
+                long recordOffset = offset;
+                offset += length;
+                if (!filter.acceptsLastChangeTime(row.getLong(LAST_CHANGE_TIME_POSITION))
+                        || !isIndexed(row.getLong(ID_POSITION), recordOffset, length)) {
+                    continue;
+                }
+                row.limit(length);
+                record.decode(row);
+                if (filter.accepts(record)) {
+                    visitor.accept(record);
+                }
+            }
+        }
+    }
+
+    /** Opens a buffered stream reading the channel from the position, the channel is closed by the caller. */
+    private static DataInputStream open(FileChannel channel, long position) throws IOException {
+        channel.position(position);
+        return new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), READ_BUFFER_SIZE));
+    }
+
+    /**
+     * Finds the first record from the position on whose index entry points to it, skipping the rest
+     * of an unfinished write. Superseded records in between are skipped too, they are not visited anyway.
+     * @return - offset of the record, -1 if there is none
+     */
+    private long findRecord(FileChannel channel, long from, long size) throws IOException {
+        ByteBuffer window = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        for (long start = from; start + MIN_RECORD_SIZE <= size; start += window.capacity() - 12) {
+            window.clear();
+            while (window.hasRemaining() && channel.read(window, start + window.position()) > 0) {
+                // filled up to the end of the window or of the file
+            }
+            for (int i = 0; i + 12 <= window.position(); i++) {
+                int length = window.getInt(i);
+                long id = window.getLong(i + 4);
+                if (length >= MIN_RECORD_SIZE && length <= size - (start + i) && id > 0
+                        && isIndexed(id, start + i, length)) {
+                    return start + i;
+                }
+            }
+            if (window.position() < window.capacity()) {
+                break;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isIndexed(long id, long offset, long length) throws IOException {
+        IndexEntry entry = indexController.getEntry(id);
+        return entry.getLength() == length && entry.getSegment() == 0 && entry.getOffset() == offset;
+    }
+
+    /** Writes the metadata written since the last call to the disk, the records before the index slots. */
+    public void force() throws IOException {
+        storageController.force();
+        indexController.force();
+    }
+
+    /** Closes the metadata file and its index. */
+    public void close() throws IOException {
+        storageController.close();
+        indexController.close();
+    }
+
+    private static boolean hasHeader(Path path) throws IOException {
+        byte[] header = new byte[4];
+        try (InputStream in = Files.newInputStream(path)) {
+            if (in.readNBytes(header, 0, header.length) < header.length) {
+                return false;
+            }
+        }
+        return ByteBuffer.wrap(header).getInt() == MAGIC;
+    }
+
+    /**
+     * Converts the metadata file from the tab-separated text format. The converted file is written next to
+     * the original and replaces it only when complete, so an interrupted conversion is repeated on the next open.
+     * The original is kept under the suffix ".txt" by a hard link, or a copy where links are not supported,
+     * before it is replaced, so the metadata file exists in one of the formats at any time.
+     */
+    private void convertText(Path path) throws IOException {
+        Path converted = Path.of(filename + ".import");
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+                OutputStream out = new BufferedOutputStream(Files.newOutputStream(converted))) {
+            out.write(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).array());
+            long offset = HEADER_SIZE;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                MetaRecord record = parseText(line);
+                if (record == null) {
+                    continue;
+                }
+                byte[] data = record.encode();
+                out.write(data);
+                indexController.writeToIndex(record.getId(), new IndexEntry(0, offset, data.length));
+                offset += data.length;
+            }
+        }
+        indexController.force();
+
+        Path original = Path.of(filename + ".txt");
+        Files.deleteIfExists(original);
+        try {
+            Files.createLink(original, path);
+        } catch (IOException | UnsupportedOperationException ex) {
+            Files.copy(path, original, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.move(converted, path, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Parses a line of the text format, id, meta, indexer, content type, last change time and url separated by tabs.
+     * The text format did not escape the fields, tabs found on a line with too many fields are kept in the meta field.
+     */
+    private static MetaRecord parseText(String line) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length < 6) {
+            return null;
+        }
+        int last = fields.length - 1;
+        long lastChangeTime;
+        try {
+            lastChangeTime = Long.parseLong(fields[last - 1]);
+        } catch (NumberFormatException ex) {
+            lastChangeTime = 0;
+        }
+        String meta = String.join("\t", Arrays.copyOfRange(fields, 1, last - 3));
+        try {
+            return new MetaRecord(Long.parseLong(fields[0]), meta, fields[last - 3], fields[last - 2], lastChangeTime,
+                    fields[last]);
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+}
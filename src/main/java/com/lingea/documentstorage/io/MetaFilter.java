@@ -0,0 +1,68 @@
+package com.lingea.documentstorage.io;
+
+import java.util.Locale;
+
+/**
+ * Filter of the metadata records visited by {@link MetaController#forEachMeta}.
+ * An empty filter accepts every record, each condition narrows it down.
+ */
+public class MetaFilter {
+    private String indexer;
+    private String contentTypePrefix;
+    private long changedFrom = Long.MIN_VALUE;
+    private long changedTo = Long.MAX_VALUE;
+
+    /** Returns a filter accepting every record. */
+    public static MetaFilter all() {
+        return new MetaFilter();
+    }
+
+    /**
+     * Accepts only the records of the indexer.
+     * @param indexer - id of the indexer
+     * @return - this filter
+     */
+    public MetaFilter withIndexer(String indexer) {
+        this.indexer = indexer;
+        return this;
+    }
+
+    /**
+     * Accepts only the records with the content type starting with the prefix.
+     * @param contentTypePrefix - e.g. "text/" or "text/html"
+     * @return - this filter
+     */
+    public MetaFilter withContentType(String contentTypePrefix) {
+        this.contentTypePrefix = contentTypePrefix.toLowerCase(Locale.ROOT);
+        return this;
+    }
+
+    /**
+     * Accepts only the records with the last change time in the range.
+     * @param from - inclusive lower bound
+     * @param to - exclusive upper bound
+     * @return - this filter
+     */
+    public MetaFilter withLastChangeTime(long from, long to) {
+        this.changedFrom = from;
+        this.changedTo = to;
+        return this;
+    }
+
+    /** Checks the last change time, which can be done before the rest of the record is decoded. */
+    boolean acceptsLastChangeTime(long lastChangeTime) {
+        return lastChangeTime >= changedFrom && lastChangeTime < changedTo;
+    }
+
+    /** Checks the whole record. */
+    public boolean accepts(MetaRecord record) {
+        if (!acceptsLastChangeTime(record.getLastChangeTime())) {
+            return false;
+        }
+        if (indexer != null && !indexer.equals(record.getIndexer())) {
+            return false;
+        }
+        return contentTypePrefix == null || (record.getContentType() != null
+                && record.getContentType().toLowerCase(Locale.ROOT).startsWith(contentTypePrefix));
+    }
+}
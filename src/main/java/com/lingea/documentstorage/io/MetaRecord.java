@@ -0,0 +1,119 @@
+package com.lingea.documentstorage.io;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Indexing metadata of a single record of the document storage.
+ * In the metadata file every record is stored as its byte length, the id, the last change time
+ * and the length-prefixed UTF-8 fields, so the fields may contain any characters.
+ */
+public class MetaRecord {
+    private static final int NULL_LENGTH = -1;
+
+    private long id;
+    private long lastChangeTime;
+    private String meta;
+    private String indexer;
+    private String contentType;
+    private String url;
+
+    public MetaRecord() {
+    }
+
+    public MetaRecord(long id, String meta, String indexer, String contentType, long lastChangeTime, String url) {
+        this.id = id;
+        this.meta = meta;
+        this.indexer = indexer;
+        this.contentType = contentType;
+        this.lastChangeTime = lastChangeTime;
+        this.url = url;
+    }
+
+    /** Serializes the record into the format of the metadata file. */
+    byte[] encode() {
+        byte[][] fields = { toBytes(meta), toBytes(indexer), toBytes(contentType), toBytes(url) };
+        int length = 4 + 8 + 8;
+        for (byte[] field : fields) {
+            length += 4 + (field == null ? 0 : field.length);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(length).putLong(id).putLong(lastChangeTime);
+        for (byte[] field : fields) {
+            if (field == null) {
+                buffer.putInt(NULL_LENGTH);
+            } else {
+                buffer.putInt(field.length).put(field);
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Fills the record with the fields serialized at the current position of the buffer.
+     * @return - this record
+     */
+    MetaRecord decode(ByteBuffer buffer) {
+        buffer.getInt();
+        id = buffer.getLong();
+        lastChangeTime = buffer.getLong();
+        meta = readString(buffer);
+        indexer = readString(buffer);
+        contentType = readString(buffer);
+        url = readString(buffer);
+        return this;
+    }
+
+    /** Returns the fields in the map format of {@link MetaController#getAllMeta()}. */
+    public Map<String, String> toMap() {
+        Map<String, String> map = new HashMap<>();
+        map.put("meta", meta);
+        map.put("indexer", indexer);
+        map.put("contentType", contentType);
+        map.put("lastChangeTime", Long.toString(lastChangeTime));
+        map.put("url", url);
+        return map;
+    }
+
+    private static byte[] toBytes(String field) {
+        return field == null ? null : field.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        String field = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return field;
+    }
+
+    public long getId() {
+        return this.id;
+    }
+
+    public long getLastChangeTime() {
+        return this.lastChangeTime;
+    }
+
+    public String getMeta() {
+        return this.meta;
+    }
+
+    public String getIndexer() {
+        return this.indexer;
+    }
+
+    public String getContentType() {
+        return this.contentType;
+    }
+
+    public String getUrl() {
+        return this.url;
+    }
+}
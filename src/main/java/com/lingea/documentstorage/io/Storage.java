@@ -1,14 +1,24 @@
 
 package com.lingea.documentstorage.io;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Class for storing the filepaths for the storages.
  */
 public class Storage {
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
     private String dataPath;
     private String indexPath;
     private String metaPath;
@@ -16,39 +26,328 @@ public class Storage {
     private StorageController storageController;
     private IndexController indexController;
     private MetaController metaController;
+    private DictionaryStore dictionaryStore;
+    private Storage chunkStorage;
+    private CodecPolicy codecPolicy = CodecPolicy.uncompressed();
 
     /** Constructor setting the paths. */
     public Storage(String dataPath, String indexPath, String metaPath) {
+        this(dataPath, indexPath, metaPath, IndexEntry.MAX_SEGMENT_SIZE);
+    }
+
+    /** Constructor setting the paths and the size at which the data file rolls over to a new segment. */
+    public Storage(String dataPath, String indexPath, String metaPath, long maxSegmentSize) {
         this.dataPath = dataPath;
         this.indexPath = indexPath;
         this.metaPath = metaPath;
 
         try {
-            storageController = new StorageController(getDataPath());
-            indexController = new IndexController(getIndexPath());
+            storageController = new StorageController(getDataPath(), maxSegmentSize);
+            indexController = new MappedIndexController(getIndexPath());
             metaController = new MetaController(getMetaPath());
+            dictionaryStore = new DictionaryStore(getDataPath());
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    /** Write the document into storage, index it, and write the metadata. */
+    /** Constructor taking the controllers, so the tests can observe the calls of the storage. */
+    Storage(String dataPath, String indexPath, String metaPath, StorageController storageController,
+            IndexController indexController, MetaController metaController) throws IOException {
+        this.dataPath = dataPath;
+        this.indexPath = indexPath;
+        this.metaPath = metaPath;
+        this.storageController = storageController;
+        this.indexController = indexController;
+        this.metaController = metaController;
+        this.dictionaryStore = new DictionaryStore(dataPath);
+    }
+
+    /**
+     * Write the document into storage, index it, and write the metadata.
+     * The document is encoded with the codec selected for its content type,
+     * unless the encoding does not make it smaller.
+     */
     public void save(byte[] bytes, String meta, String indexerId, String contentType,
             long lastChangeTime, String path, long docId, Connection conn) throws SQLException, IOException {
+        save(bytes, meta, indexerId, contentType, lastChangeTime, path, null, docId, conn);
+    }
+
+    /**
+     * Write the record into storage, index it, and write the metadata.
+     * The record is encoded with the codec selected for its content type, records
+     * encoded with a dictionary use the newest dictionary trained for the language.
+     */
+    public void save(byte[] bytes, String meta, String indexerId, String contentType,
+            long lastChangeTime, String path, String language, long docId, Connection conn)
+            throws SQLException, IOException {
         try {
-            synchronized(this) {
-                indexController.writeToIndex(docId, storageController.getSize(), bytes.length);
-                metaController.writeMeta(Long.toString(docId), meta, indexerId, contentType, Long.toString(lastChangeTime), path);
+            save(bytes, meta, indexerId, contentType, lastChangeTime, path, language, docId);
+        } catch (Exception ex) {
+            conn.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Write the record into storage, index it, and write the metadata.
+     * Unlike the other variants it leaves the connection of the caller open on failure,
+     * so it can be used inside a transaction which is rolled back by the caller.
+     */
+    public void save(byte[] bytes, String meta, String indexerId, String contentType,
+            long lastChangeTime, String path, String language, long docId) throws IOException {
+        saveRecord(bytes, contentType, language, docId);
+        metaController.writeMeta(docId, meta, indexerId, contentType, lastChangeTime, path);
+    }
+
+    /**
+     * Write the record into storage and index it, without any metadata.
+     * The record is encoded with the codec selected for its content type, unless
+     * the encoding does not make it smaller.
+     */
+    public void saveRecord(byte[] bytes, String contentType, String language, long id) throws IOException {
+        writeIndex(id, writeRecord(bytes, contentType, language));
+    }
+
+    /**
+     * Writes the record into the data file without indexing it, encoded as by
+     * {@link #saveRecord(byte[], String, String, long)}. The record can be read only once
+     * its location has been written to the index by {@link #writeIndex(long, IndexEntry)}.
+     * @return - location of the record
+     */
+    public IndexEntry writeRecord(byte[] bytes, String contentType, String language) throws IOException {
+        Codec codec = codecPolicy.select(contentType);
+        CompressionDictionary dictionary = null;
+        if (codec == Codec.DICTIONARY) {
+            dictionary = dictionaryStore.getLatest(language);
+            if (dictionary == null) {
+                codec = Codec.DEFLATE;
             }
+        }
+        byte[] data = codec.encode(bytes, dictionary);
+        if (data.length >= bytes.length) {
+            codec = Codec.NONE;
+            data = bytes;
+        }
+
+        return storageController.write(data).withCodec(codec);
+    }
+
+    /** Points the index of the id to the location of a record written by {@link #writeRecord}. */
+    public void writeIndex(long id, IndexEntry entry) throws IOException {
+        // the bytes are written before the index, so the index never points to unwritten data
+        indexController.writeToIndex(id, entry);
+    }
+
+    /**
+     * Write the document as a list of chunks saved in the chunk storage, index it, and write the metadata.
+     * @param chunkIds - ids of the chunks in the chunk storage, in the order of the document.
+     */
+    public void saveChunked(int[] chunkIds, String meta, String indexerId, String contentType,
+            long lastChangeTime, String path, long docId, Connection conn) throws SQLException, IOException {
+        try {
+            saveChunked(chunkIds, meta, indexerId, contentType, lastChangeTime, path, docId);
+        } catch (Exception ex) {
+            conn.close();
+            throw ex;
+        }
+    }
 
-            storageController.write(bytes);
+    /**
+     * Write the document as a list of chunks saved in the chunk storage, index it, and write the metadata.
+     * The connection of the caller is not touched on failure.
+     * @param chunkIds - ids of the chunks in the chunk storage, in the order of the document.
+     */
+    public void saveChunked(int[] chunkIds, String meta, String indexerId, String contentType,
+            long lastChangeTime, String path, long docId) throws IOException {
+        byte[] chunkList = new byte[chunkIds.length * 5];
+        int length = 0;
+        for (int chunkId : chunkIds) {
+            length = CompressionDictionary.writeVarint(chunkList, length, chunkId);
+        }
+        IndexEntry entry = storageController.write(Arrays.copyOf(chunkList, length)).asChunked();
+        indexController.writeToIndex(docId, entry);
+        metaController.writeMeta(docId, meta, indexerId, contentType, lastChangeTime, path);
+    }
 
+    /**
+     * Write the document from a channel into storage, index it, and write the metadata.
+     * The source is read from its current position and is already encoded with the codec.
+     */
+    public void save(ReadableByteChannel source, long length, Codec codec, String meta, String indexerId,
+            String contentType, long lastChangeTime, String path, long docId, Connection conn)
+            throws SQLException, IOException {
+        try {
+            IndexEntry entry = storageController.write(source, length).withCodec(codec);
+            indexController.writeToIndex(docId, entry);
+            metaController.writeMeta(docId, meta, indexerId, contentType, lastChangeTime, path);
         } catch (Exception ex) {
             conn.close();
             throw ex;
         }
     }
 
+    /**
+     * Reads the record with the id and decodes it.
+     * @param id - id of the record.
+     * @return - bytes of the record
+     * @throws IOException
+     */
+    public byte[] read(long id) throws IOException {
+        IndexEntry entry = indexController.getEntry(id);
+        return decode(entry, storageController.read(entry));
+    }
+
+    /**
+     * Reads the records with the ids and decodes them. The index entries are resolved first,
+     * so the records can be read in the order of their location, see {@link StorageController#readMany}.
+     * @param ids - ids of the records.
+     * @return - bytes of the records in the order of the ids
+     * @throws IOException
+     */
+    public byte[][] readMany(long[] ids) throws IOException {
+        IndexEntry[] entries = new IndexEntry[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            entries[i] = indexController.getEntry(ids[i]);
+        }
+        byte[][] records = storageController.readMany(entries);
+        for (int i = 0; i < records.length; i++) {
+            records[i] = decode(entries[i], records[i]);
+        }
+        return records;
+    }
+
+    /**
+     * Returns a read-only view of the record with the id. Records stored without encoding
+     * are not copied onto the heap, encoded records have to be decoded into a new buffer.
+     * @param id - id of the record.
+     * @return - read-only buffer with the bytes of the record
+     * @throws IOException
+     */
+    public ByteBuffer readBuffer(long id) throws IOException {
+        IndexEntry entry = indexController.getEntry(id);
+        if (entry.getCodec() == Codec.NONE && !entry.isChunked()) {
+            return storageController.map(entry);
+        }
+        return ByteBuffer.wrap(decode(entry, storageController.read(entry))).asReadOnlyBuffer();
+    }
+
+    /**
+     * Writes the record with the id to the target channel. Records stored without encoding
+     * are transferred by the operating system, encoded records are decoded while being written.
+     * @param id - id of the record.
+     * @param target - channel the record is written to.
+     * @return - number of bytes written to the target
+     * @throws IOException
+     */
+    public long transferTo(long id, WritableByteChannel target) throws IOException {
+        IndexEntry entry = indexController.getEntry(id);
+        if (entry.isChunked()) {
+            long transferred = 0;
+            for (int chunkId : readChunkList(storageController.read(entry))) {
+                transferred += chunkStorage.transferTo(chunkId, target);
+            }
+            return transferred;
+        }
+
+        if (entry.getCodec() == Codec.NONE) {
+            return storageController.transferTo(entry, target);
+        }
+
+        long transferred = 0;
+        byte[] buffer = new byte[TRANSFER_BUFFER_SIZE];
+        try (InputStream in = entry.getCodec().newDecoder(new ByteArrayInputStream(storageController.read(entry)),
+                dictionaryStore)) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+                while (chunk.hasRemaining()) {
+                    target.write(chunk);
+                }
+                transferred += read;
+            }
+        }
+        return transferred;
+    }
+
+    /**
+     * Trains a new version of the compression dictionary used by {@link Codec#DICTIONARY}.
+     * Records saved before keep referring to the dictionary they have been encoded with.
+     * @param language - language of the samples, null for a dictionary used for any language.
+     * @param samples - sample of the records.
+     * @param dictionarySize - maximal byte size of the dictionary.
+     * @return - the new dictionary
+     * @throws IOException
+     */
+    public CompressionDictionary trainDictionary(String language, List<byte[]> samples, int dictionarySize)
+            throws IOException {
+        return dictionaryStore.add(language, CompressionDictionary.train(samples, dictionarySize));
+    }
+
+    private byte[] decode(IndexEntry entry, byte[] data) throws IOException {
+        if (entry.isChunked()) {
+            ByteArrayOutputStream document = new ByteArrayOutputStream();
+            for (int chunkId : readChunkList(data)) {
+                document.write(chunkStorage.read(chunkId));
+            }
+            return document.toByteArray();
+        }
+        return entry.getCodec().decode(data, dictionaryStore);
+    }
+
+    private int[] readChunkList(byte[] data) throws IOException {
+        if (chunkStorage == null) {
+            throw new IOException("Chunked record in " + dataPath + " cannot be read without the chunk storage");
+        }
+        int[] chunkIds = new int[data.length];
+        int count = 0;
+        for (int i = 0; i < data.length; count++) {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = data[i++];
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+            }
+            chunkIds[count] = value;
+        }
+        return Arrays.copyOf(chunkIds, count);
+    }
+
+    /**
+     * Writes the records, the metadata and the chunks written since the last call to the disk, meant to be
+     * called before the transaction referring to them is committed. The records are forced before
+     * the index slots pointing to them, so a durable slot never points to bytes lost by a crash.
+     */
+    public void force() throws IOException {
+        if (storageController != null) {
+            storageController.force();
+        }
+        if (indexController != null) {
+            indexController.force();
+        }
+        if (metaController != null) {
+            metaController.force();
+        }
+        if (chunkStorage != null) {
+            chunkStorage.force();
+        }
+    }
+
+    /** Closes the files held open by the controllers. */
+    public void close() throws IOException {
+        if (storageController != null) {
+            storageController.close();
+        }
+        if (indexController != null) {
+            indexController.close();
+        }
+        if (metaController != null) {
+            metaController.close();
+        }
+    }
+
     public String getDataPath() {
         return this.dataPath;
     }
@@ -72,4 +371,22 @@ public class Storage {
     public MetaController getMetaController() {
         return this.metaController;
     }
+
+    public CodecPolicy getCodecPolicy() {
+        return this.codecPolicy;
+    }
+
+    public Storage getChunkStorage() {
+        return this.chunkStorage;
+    }
+
+    /** Sets the storage holding the chunks of the records saved with {@link #saveChunked}. */
+    public void setChunkStorage(Storage chunkStorage) {
+        this.chunkStorage = chunkStorage;
+    }
+
+    /** Sets the policy selecting the codec of newly saved records. */
+    public void setCodecPolicy(CodecPolicy codecPolicy) {
+        this.codecPolicy = codecPolicy;
+    }
 }
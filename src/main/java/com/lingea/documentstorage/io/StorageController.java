@@ -1,50 +1,394 @@
 package com.lingea.documentstorage.io;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.lingea.documentstorage.recording.RecordChecksum;
 
 /**
  * Class for reading to and writing from the document storage.
+ * The data are split into segment files, segment 0 is the data file itself and
+ * segment n is stored in the data file with the suffix ".%06d". Once the active
+ * segment reaches the maximal segment size, writing rolls over to a new segment
+ * and the previous one is sealed, it is never written to again.
+ * The segments are held open for the whole lifetime of the controller and all
+ * reads and writes are positional, so any number of threads can append and read
+ * at the same time. Space for a new record is reserved with an in-memory append
+ * cursor, which guarantees that concurrent writers never overlap.
  */
 public class StorageController extends AbstractController {
+    private static final long MIN_MAPPED_LENGTH = 64 * 1024;
+    private static final int CHECKSUM_BUFFER_SIZE = 1024 * 1024;
+    /** Largest number of unrequested bytes between records which are still read together. */
+    private static final long MAX_READ_GAP = 16 * 1024;
+    /** Largest byte length of a read covering several records, a larger record is read alone. */
+    private static final long MAX_READ_LENGTH = 4 * 1024 * 1024;
+
+    private final long maxSegmentSize;
+    /** Channels of all segments, indexed by the segment number. */
+    private volatile FileChannel[] segments;
+    /** Append cursor, the active segment and the offset in it encoded as in {@link IndexEntry}. */
+    private final AtomicLong appendCursor;
+    /** Writers share the lock, sealing takes it exclusively to wait for the writes in progress. */
+    private final ReadWriteLock sealLock = new ReentrantReadWriteLock();
+    /** Lowest segment written since the last {@link #force()}, Integer.MAX_VALUE if none has been. */
+    private final AtomicInteger lowestDirtySegment = new AtomicInteger(Integer.MAX_VALUE);
 
     public StorageController(String filename) throws IOException {
+        this(filename, IndexEntry.MAX_SEGMENT_SIZE);
+    }
+
+    public StorageController(String filename, long maxSegmentSize) throws IOException {
         super(filename);
+        if (maxSegmentSize <= 0 || maxSegmentSize > IndexEntry.MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Segment size must be between 1 and " + IndexEntry.MAX_SEGMENT_SIZE);
+        }
+        this.maxSegmentSize = maxSegmentSize;
+
+        int active = 0;
+        while (Files.exists(getSegmentPath(active + 1))) {
+            active++;
+        }
+        FileChannel[] channels = new FileChannel[active + 1];
+        for (int i = 0; i < active; i++) {
+            channels[i] = FileChannel.open(getSegmentPath(i), StandardOpenOption.READ);
+        }
+        channels[active] = openSegment(active);
+        this.segments = channels;
+        this.appendCursor = new AtomicLong(new IndexEntry(active, channels[active].size(), 0).getStoredOffset());
+    }
+
+    /**
+     * Returns size of the active segment of the document storage including the space
+     * reserved by writes which are still in progress.
+     * @return - byte size of the active segment.
+     */
+    public long getSize() {
+        return IndexEntry.unpack(appendCursor.get(), 0).getOffset();
+    }
+
+    /** Returns the number of the segment new records are written to. */
+    public int getActiveSegment() {
+        return IndexEntry.unpack(appendCursor.get(), 0).getSegment();
+    }
+
+    /** Returns the path of the file holding the given segment. */
+    public Path getSegmentPath(int segment) {
+        return segment == 0 ? Path.of(filename) : Path.of(String.format("%s.%06d", filename, segment));
     }
 
     /**
-     * Returns file size of the document storage, this is usefull
-     * for retrieving the offset during write.
-     * @return - byte size of document storage.
+     * Atomically reserves space for a record at the end of the document storage,
+     * rolling over to a new segment if the record does not fit into the active one.
+     * @param length - byte length of the record.
+     * @return - location where the record has to be written.
      * @throws IOException
      */
-    public long getSize() throws IOException {
-        Path path = Path.of(this.filename);
-        if (Files.exists(path)) {
-            return Files.size(path);
+    public IndexEntry reserve(long length) throws IOException {
+        while (true) {
+            long cursor = appendCursor.get();
+            IndexEntry position = IndexEntry.unpack(cursor, length);
+            if (position.getOffset() == 0 || position.getOffset() + length <= maxSegmentSize) {
+                if (position.getOffset() + length > IndexEntry.MAX_SEGMENT_SIZE) {
+                    throw new IOException("Record of " + length + " bytes does not fit into a segment");
+                }
+                if (appendCursor.compareAndSet(cursor, cursor + length)) {
+                    return position;
+                }
+            } else {
+                int segment = position.getSegment() + 1;
+                if (segment > IndexEntry.MAX_SEGMENT) {
+                    throw new IOException("Maximal number of segments of " + filename + " has been reached");
+                }
+                IndexEntry rolled = new IndexEntry(segment, 0, length);
+                if (appendCursor.compareAndSet(cursor, rolled.getStoredOffset() + length)) {
+                    getSegment(segment);
+                    return rolled;
+                }
+            }
         }
-        return 0;
     }
 
     /**
      * Function for writing into the document storage.
      * @param data - bytes of the document to store.
+     * @return - location where the document has been written.
      * @throws IOException
      */
-    public void write(byte[] data) throws IOException {
-        FileUtils.writeBytesToEndOfRAF(this.filename, data);
+    public IndexEntry write(byte[] data) throws IOException {
+        sealLock.readLock().lock();
+        try {
+            IndexEntry entry = reserve(data.length);
+            FileChannel channel = getSegment(entry.getSegment());
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            long offset = entry.getOffset();
+            while (buffer.hasRemaining()) {
+                offset += channel.write(buffer, offset);
+            }
+            markDirty(entry.getSegment());
+            return entry;
+        } finally {
+            sealLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the document from a channel, e.g. a staging file, into the document storage.
+     * The source is read from its current position.
+     * @param source - channel with the bytes of the document.
+     * @param length - number of bytes to transfer from the source.
+     * @return - location where the document has been written.
+     * @throws IOException
+     */
+    public IndexEntry write(ReadableByteChannel source, long length) throws IOException {
+        sealLock.readLock().lock();
+        try {
+            IndexEntry entry = reserve(length);
+            FileChannel channel = getSegment(entry.getSegment());
+            long transferred = 0;
+            while (transferred < length) {
+                long count = channel.transferFrom(source, entry.getOffset() + transferred, length - transferred);
+                if (count <= 0) {
+                    throw new EOFException("Source ended after " + transferred + " of " + length + " bytes");
+                }
+                transferred += count;
+            }
+            markDirty(entry.getSegment());
+            return entry;
+        } finally {
+            sealLock.readLock().unlock();
+        }
     }
 
     /**
      * Function for reading the document from the document storage.
      * Offset and length should be obtained from the IndexController class.
-     * @param offset - byte offset of the document in the storage.
+     * @param offset - byte offset of the document as stored in the index.
      * @param length - byte length of the document in the storage.
      * @return - bytes of the document
      * @throws IOException
      */
     public byte[] read(long offset, long length) throws IOException {
-        return FileUtils.readBytesFromRAF(this.filename, offset, offset + length);
+        return read(IndexEntry.unpack(offset, length));
+    }
+
+    /**
+     * Function for reading the document from the document storage.
+     * @param entry - location of the document obtained from the IndexController class.
+     * @return - bytes of the document
+     * @throws IOException
+     */
+    public byte[] read(IndexEntry entry) throws IOException {
+        FileChannel channel = getSegment(entry.getSegment());
+        byte[] data = new byte[(int) entry.getLength()];
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, entry.getOffset() + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Record at " + entry.getOffset() + " with length " + entry.getLength()
+                        + " is beyond the end of " + getSegmentPath(entry.getSegment()));
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Reads many records with as few reads as possible. The records are sorted by their location
+     * and records of a segment lying close to each other are read by a single sequential read,
+     * which covers the gaps between them of up to {@link #MAX_READ_GAP} bytes.
+     * @param entries - locations of the records obtained from the IndexController class.
+     * @return - bytes of the records in the order of the entries
+     * @throws IOException
+     */
+    public byte[][] readMany(IndexEntry[] entries) throws IOException {
+        Integer[] order = new Integer[entries.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.<Integer>comparingInt(i -> entries[i].getSegment())
+                .thenComparingLong(i -> entries[i].getOffset()));
+
+        byte[][] records = new byte[entries.length][];
+        int first = 0;
+        while (first < order.length) {
+            IndexEntry start = entries[order[first]];
+            long end = start.getOffset() + start.getLength();
+            int last = first + 1;
+            while (last < order.length) {
+                IndexEntry next = entries[order[last]];
+                long nextEnd = Math.max(end, next.getOffset() + next.getLength());
+                if (next.getSegment() != start.getSegment() || next.getOffset() > end + MAX_READ_GAP
+                        || nextEnd - start.getOffset() > MAX_READ_LENGTH) {
+                    break;
+                }
+                end = nextEnd;
+                last++;
+            }
+
+            if (last - first == 1) {
+                records[order[first]] = read(start);
+            } else {
+                byte[] range = read(new IndexEntry(start.getSegment(), start.getOffset(), end - start.getOffset()));
+                for (int i = first; i < last; i++) {
+                    IndexEntry entry = entries[order[i]];
+                    int from = (int) (entry.getOffset() - start.getOffset());
+                    records[order[i]] = Arrays.copyOfRange(range, from, from + (int) entry.getLength());
+                }
+            }
+            first = last;
+        }
+        return records;
+    }
+
+    /**
+     * Returns a read-only view of the document without copying it onto the heap.
+     * Large documents are memory mapped, small ones are read into a heap buffer
+     * because mapping a few bytes costs more than reading them.
+     * @param entry - location of the document obtained from the IndexController class.
+     * @return - read-only buffer with the bytes of the document
+     * @throws IOException
+     */
+    public ByteBuffer map(IndexEntry entry) throws IOException {
+        if (entry.getLength() < MIN_MAPPED_LENGTH) {
+            return ByteBuffer.wrap(read(entry)).asReadOnlyBuffer();
+        }
+        return getSegment(entry.getSegment())
+                .map(FileChannel.MapMode.READ_ONLY, entry.getOffset(), entry.getLength())
+                .asReadOnlyBuffer();
+    }
+
+    /**
+     * Transfers the document directly to the target channel, letting the
+     * operating system copy the bytes when it can.
+     * @param entry - location of the document obtained from the IndexController class.
+     * @param target - channel to write the document to.
+     * @return - number of transferred bytes
+     * @throws IOException
+     */
+    public long transferTo(IndexEntry entry, WritableByteChannel target) throws IOException {
+        FileChannel channel = getSegment(entry.getSegment());
+        long transferred = 0;
+        while (transferred < entry.getLength()) {
+            long count = channel.transferTo(entry.getOffset() + transferred, entry.getLength() - transferred, target);
+            if (count <= 0) {
+                throw new EOFException("Record at " + entry.getOffset() + " with length " + entry.getLength()
+                        + " is beyond the end of " + getSegmentPath(entry.getSegment()));
+            }
+            transferred += count;
+        }
+        return transferred;
+    }
+
+    /**
+     * Returns the checksum of a sealed segment. The checksum is computed only once,
+     * after that it is read from a file stored beside the segment.
+     * @param segment - number of a sealed segment.
+     * @return - checksum of the whole segment file
+     * @throws IOException
+     */
+    public String getSegmentChecksum(int segment) throws IOException {
+        if (segment < 0 || segment >= getActiveSegment()) {
+            throw new IllegalArgumentException("Segment " + segment + " of " + filename + " is not sealed");
+        }
+
+        Path checksumPath = Path.of(getSegmentPath(segment) + ".md5");
+        if (Files.exists(checksumPath)) {
+            return Files.readString(checksumPath).trim();
+        }
+
+        // wait until writes reserved in the segment before it was sealed are finished
+        sealLock.writeLock().lock();
+        sealLock.writeLock().unlock();
+
+        FileChannel channel = getSegment(segment);
+        MessageDigest digest = RecordChecksum.newDigest();
+        ByteBuffer buffer = ByteBuffer.allocate(CHECKSUM_BUFFER_SIZE);
+        long position = 0;
+        while (channel.read(buffer, position) > 0) {
+            buffer.flip();
+            position += buffer.remaining();
+            digest.update(buffer);
+            buffer.clear();
+        }
+        String checksum = RecordChecksum.toHex(digest.digest());
+        Files.writeString(checksumPath, checksum);
+        return checksum;
+    }
+
+    /**
+     * Writes the records written since the last call to the disk, meant to be called before
+     * the index pointing to them is forced. Only the segments from the lowest one written to
+     * since the last call are forced, which is just the active one unless it has rolled over.
+     * @throws IOException
+     */
+    public void force() throws IOException {
+        int segment = lowestDirtySegment.getAndSet(Integer.MAX_VALUE);
+        if (segment == Integer.MAX_VALUE) {
+            return;
+        }
+        FileChannel[] channels = segments;
+        for (int i = segment; i < channels.length; i++) {
+            if (channels[i] != null) {
+                channels[i].force(false);
+            }
+        }
+    }
+
+    /** Closes all segments of the document storage. */
+    public void close() throws IOException {
+        for (FileChannel channel : segments) {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    /** Marks the segment as written, a write has to be marked only once its bytes are in the segment. */
+    private void markDirty(int segment) {
+        int dirty;
+        while (segment < (dirty = lowestDirtySegment.get()) && !lowestDirtySegment.compareAndSet(dirty, segment)) {
+            // retried until the lowest dirty segment is not above the segment
+        }
+    }
+
+    /** Returns the channel of the segment, opening the segment if it has just been created. */
+    private FileChannel getSegment(int segment) throws IOException {
+        FileChannel[] channels = segments;
+        if (segment < channels.length && channels[segment] != null) {
+            return channels[segment];
+        }
+        return addSegment(segment);
+    }
+
+    private synchronized FileChannel addSegment(int segment) throws IOException {
+        FileChannel[] channels = segments;
+        if (segment < channels.length && channels[segment] != null) {
+            return channels[segment];
+        }
+
+        FileChannel[] grown = new FileChannel[Math.max(channels.length, segment + 1)];
+        System.arraycopy(channels, 0, grown, 0, channels.length);
+        grown[segment] = openSegment(segment);
+        segments = grown;
+        return grown[segment];
+    }
+
+    private FileChannel openSegment(int segment) throws IOException {
+        return FileChannel.open(getSegmentPath(segment), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
     }
 }
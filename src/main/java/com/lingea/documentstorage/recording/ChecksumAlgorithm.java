@@ -0,0 +1,138 @@
+package com.lingea.documentstorage.recording;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Algorithms for the checksums identifying the records. The one-shot methods use a hasher confined
+ * to the calling thread, so no digest instance is created per call. Strings up to a length are hashed
+ * as their UTF-8 bytes, which the JDK encodes much faster than a loop over the chars, longer text is
+ * encoded in a small reused buffer instead of a copy of the whole text.
+ * The checksums of a storage are compared with the checksums already stored, the algorithm of a level
+ * must not be changed once the storage contains records.
+ */
+public enum ChecksumAlgorithm {
+    /** 128-bit MD5, the algorithm of the storages created before the algorithm could be chosen. */
+    MD5(16),
+    /** 256-bit SHA-256, for records whose checksum should be collision resistant. */
+    SHA_256(32),
+    /** 128-bit x64 MurmurHash3, not cryptographic, but much faster for short paragraphs and sentences. */
+    MURMUR3_128(16);
+
+    private static final int ENCODE_BUFFER_SIZE = 4096;
+    /** Longest string hashed as a copy of its UTF-8 bytes. */
+    private static final int MAX_COPIED_LENGTH = 64 * 1024;
+    private static final ThreadLocal<byte[]> ENCODE_BUFFERS = ThreadLocal.withInitial(() -> new byte[ENCODE_BUFFER_SIZE]);
+
+    private final int digestLength;
+    private final ThreadLocal<Hasher> hashers = ThreadLocal.withInitial(this::newHasher);
+
+    ChecksumAlgorithm(int digestLength) {
+        this.digestLength = digestLength;
+    }
+
+    /** Returns the number of bytes of the digest. */
+    public int getDigestLength() {
+        return digestLength;
+    }
+
+    /** Returns a new hasher for data which are not available at once. */
+    public Hasher newHasher() {
+        switch (this) {
+        case SHA_256:
+            return new MessageDigestHasher("SHA-256");
+        case MURMUR3_128:
+            return new Murmur3Hasher();
+        default:
+            return new MessageDigestHasher("MD5");
+        }
+    }
+
+    public byte[] digest(byte[] bytes) {
+        Hasher hasher = hashers.get();
+        hasher.update(bytes, 0, bytes.length);
+        return hasher.digest();
+    }
+
+    /** Returns the digest of the remaining bytes of the buffer, the position of the buffer is not changed. */
+    public byte[] digest(ByteBuffer buffer) {
+        Hasher hasher = hashers.get();
+        int position = buffer.position();
+        hasher.update(buffer);
+        buffer.position(position);
+        return hasher.digest();
+    }
+
+    /** Returns the digest of the UTF-8 encoding of the text. */
+    public byte[] digest(CharSequence text) {
+        if (text instanceof String && text.length() <= MAX_COPIED_LENGTH) {
+            return digest(((String) text).getBytes(StandardCharsets.UTF_8));
+        }
+        Hasher hasher = hashers.get();
+        updateUtf8(hasher, text);
+        return hasher.digest();
+    }
+
+    /** Writes the digest of the UTF-8 encoding of the text to the array at the offset. */
+    public void digestInto(CharSequence text, byte[] bytes, int offset) {
+        Hasher hasher = hashers.get();
+        if (text instanceof String && text.length() <= MAX_COPIED_LENGTH) {
+            byte[] encoded = ((String) text).getBytes(StandardCharsets.UTF_8);
+            hasher.update(encoded, 0, encoded.length);
+        } else {
+            updateUtf8(hasher, text);
+        }
+        hasher.digestInto(bytes, offset);
+    }
+
+    /** Returns the hex checksum of the bytes. */
+    public String checksum(byte[] bytes) {
+        return Digest.toHex(digest(bytes));
+    }
+
+    /** Returns the hex checksum of the remaining bytes of the buffer. */
+    public String checksum(ByteBuffer buffer) {
+        return Digest.toHex(digest(buffer));
+    }
+
+    /** Returns the hex checksum of the UTF-8 encoding of the text. */
+    public String checksum(CharSequence text) {
+        return Digest.toHex(digest(text));
+    }
+
+    /**
+     * Hashes the UTF-8 encoding of the text, unpaired surrogates are replaced by '?' as in
+     * {@code String.getBytes(StandardCharsets.UTF_8)}.
+     */
+    static void updateUtf8(Hasher hasher, CharSequence text) {
+        byte[] buffer = ENCODE_BUFFERS.get();
+        int length = text.length();
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (count > buffer.length - 4) {
+                hasher.update(buffer, 0, count);
+                count = 0;
+            }
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                buffer[count++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[count++] = (byte) (0xc0 | (c >> 6));
+                buffer[count++] = (byte) (0x80 | (c & 0x3f));
+            } else if (!Character.isSurrogate(c)) {
+                buffer[count++] = (byte) (0xe0 | (c >> 12));
+                buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[count++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                buffer[count++] = (byte) (0xf0 | (codePoint >> 18));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[count++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else {
+                buffer[count++] = '?';
+            }
+        }
+        hasher.update(buffer, 0, count);
+    }
+}
@@ -0,0 +1,86 @@
+package com.lingea.documentstorage.recording;
+
+import java.util.Arrays;
+
+/**
+ * Checksum of a record in its binary form, as it is stored in the database.
+ * It takes the 16 bytes of the MD5 digest instead of the 32 characters of its hex string,
+ * the hex string is created only when it is asked for.
+ */
+public final class Digest {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final byte[] bytes;
+
+    private Digest(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /** Returns the digest of the bytes, the array is copied. */
+    public static Digest of(byte[] bytes) {
+        return new Digest(bytes.clone());
+    }
+
+    /** Returns the digest of the hex checksum string, see {@link RecordChecksum#getChecksum(byte[])}. */
+    public static Digest fromHex(String hex) {
+        return new Digest(parseHex(hex));
+    }
+
+    /**
+     * Converts the hex checksum string to bytes.
+     * @throws IllegalArgumentException if the string is not an even number of hex digits
+     */
+    public static byte[] parseHex(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("Invalid checksum " + hex);
+        }
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Invalid checksum " + hex);
+            }
+            result[i] = (byte) (high << 4 | low);
+        }
+        return result;
+    }
+
+    /** Converts the bytes to the lower case hex checksum string. */
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    /** Returns a copy of the bytes of the digest. */
+    public byte[] toBytes() {
+        return bytes.clone();
+    }
+
+    public int length() {
+        return bytes.length;
+    }
+
+    public String toHex() {
+        return toHex(bytes);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof Digest && Arrays.equals(bytes, ((Digest) obj).bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(bytes);
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+}
@@ -0,0 +1,171 @@
+package com.lingea.documentstorage.recording;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Digests of a batch of records stored one after another in a single byte array, so hashing
+ * the paragraphs or sentences of a long document creates no digest object per record, the hashers
+ * write the digests into the array. Short texts are still hashed as a copy of their UTF-8 bytes.
+ * Large batches can be hashed in parallel in the common fork-join pool.
+ */
+public final class DigestArray {
+    /** Number of characters below which a batch is always hashed on the calling thread. */
+    public static final int PARALLEL_THRESHOLD = 64 * 1024;
+    /** Number of characters hashed by a single fork-join task at least. */
+    private static final int TASK_SIZE = 16 * 1024;
+
+    private final int digestLength;
+    private final int size;
+    private final byte[] bytes;
+
+    private DigestArray(int digestLength, int size) {
+        this.digestLength = digestLength;
+        this.size = size;
+        this.bytes = new byte[digestLength * size];
+    }
+
+    /**
+     * Hashes the UTF-8 encoding of the texts.
+     * @param parallel - hash the texts in the common fork-join pool if there are at least
+     *  {@link #PARALLEL_THRESHOLD} characters of them
+     */
+    public static DigestArray hash(ChecksumAlgorithm algorithm, List<? extends CharSequence> texts, boolean parallel) {
+        DigestArray result = new DigestArray(algorithm.getDigestLength(), texts.size());
+        if (parallel && texts.size() > 1) {
+            long[] charOffsets = countChars(texts);
+            if (charOffsets[texts.size()] >= PARALLEL_THRESHOLD) {
+                ForkJoinPool.commonPool().invoke(new HashTask(algorithm, texts, charOffsets, result, 0, texts.size()));
+                return result;
+            }
+        }
+        result.hashRange(algorithm, texts, 0, texts.size());
+        return result;
+    }
+
+    /** Converts hex checksums, all of them must have the same length. */
+    public static DigestArray fromHex(String[] hashes) {
+        DigestArray result = new DigestArray(hashes.length == 0 ? 0 : hashes[0].length() / 2, hashes.length);
+        for (int i = 0; i < hashes.length; i++) {
+            byte[] digest = Digest.parseHex(hashes[i]);
+            if (digest.length != result.digestLength) {
+                throw new IllegalArgumentException("Checksums of different lengths: " + hashes[0] + ", " + hashes[i]);
+            }
+            System.arraycopy(digest, 0, result.bytes, i * result.digestLength, digest.length);
+        }
+        return result;
+    }
+
+    /** Converts hex checksums, all of them must have the same length. */
+    public static DigestArray fromHex(List<String> hashes) {
+        return fromHex(hashes.toArray(new String[0]));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getDigestLength() {
+        return digestLength;
+    }
+
+    /** Returns a copy of the bytes of the i-th digest. */
+    public byte[] getBytes(int i) {
+        byte[] digest = new byte[digestLength];
+        System.arraycopy(bytes, i * digestLength, digest, 0, digestLength);
+        return digest;
+    }
+
+    public Digest getDigest(int i) {
+        return Digest.of(getBytes(i));
+    }
+
+    /** Returns the hex checksum of the i-th digest. */
+    public String getHex(int i) {
+        return Digest.toHex(getBytes(i));
+    }
+
+    /** Returns the hex checksums of all digests. */
+    public String[] toHexArray() {
+        String[] result = new String[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = getHex(i);
+        }
+        return result;
+    }
+
+    /** Returns the first 8 bytes of the i-th digest as a big endian long, the digest must have at least 16 bytes. */
+    public long getHigh(int i) {
+        return getLong(i * digestLength);
+    }
+
+    /** Returns the bytes 8 to 15 of the i-th digest as a big endian long. */
+    public long getLow(int i) {
+        return getLong(i * digestLength + 8);
+    }
+
+    private long getLong(int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = (value << 8) | (bytes[i] & 0xff);
+        }
+        return value;
+    }
+
+    private void hashRange(ChecksumAlgorithm algorithm, List<? extends CharSequence> texts, int from, int to) {
+        for (int i = from; i < to; i++) {
+            algorithm.digestInto(texts.get(i), bytes, i * digestLength);
+        }
+    }
+
+    /** Returns the number of characters of the texts before each of them, followed by the total. */
+    private static long[] countChars(List<? extends CharSequence> texts) {
+        long[] offsets = new long[texts.size() + 1];
+        int i = 0;
+        for (CharSequence text : texts) {
+            offsets[i + 1] = offsets[i] + text.length();
+            i++;
+        }
+        return offsets;
+    }
+
+    /**
+     * Splits the range into halves of about the same number of characters until it has less than
+     * {@link #TASK_SIZE} characters, the characters are counted once before the first split.
+     */
+    private static class HashTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ChecksumAlgorithm algorithm;
+        private final transient List<? extends CharSequence> texts;
+        private final long[] charOffsets;
+        private final transient DigestArray result;
+        private final int from;
+        private final int to;
+
+        HashTask(ChecksumAlgorithm algorithm, List<? extends CharSequence> texts, long[] charOffsets,
+                DigestArray result, int from, int to) {
+            this.algorithm = algorithm;
+            this.texts = texts;
+            this.charOffsets = charOffsets;
+            this.result = result;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from < 2 || charOffsets[to] - charOffsets[from] < TASK_SIZE) {
+                result.hashRange(algorithm, texts, from, to);
+                return;
+            }
+            // first text starting at or after the half of the characters, both halves get at least one text
+            int middle = Arrays.binarySearch(charOffsets, from + 1, to, (charOffsets[from] + charOffsets[to]) >>> 1);
+            middle = Math.min(Math.max(middle < 0 ? -middle - 1 : middle, from + 1), to - 1);
+            invokeAll(new HashTask(algorithm, texts, charOffsets, result, from, middle),
+                    new HashTask(algorithm, texts, charOffsets, result, middle, to));
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.lingea.documentstorage.recording;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental hash of data which are not available at once, created by {@link ChecksumAlgorithm#newHasher()}.
+ * A hasher is not thread safe.
+ */
+public interface Hasher {
+    void update(byte[] bytes, int offset, int length);
+
+    /** Hashes the remaining bytes of the buffer, the position of the buffer is moved to its limit. */
+    void update(ByteBuffer buffer);
+
+    /** Returns the digest of the data hashed so far and resets the hasher. */
+    byte[] digest();
+
+    /** Writes the digest of the data hashed so far to the array at the offset and resets the hasher. */
+    default void digestInto(byte[] bytes, int offset) {
+        byte[] digest = digest();
+        System.arraycopy(digest, 0, bytes, offset, digest.length);
+    }
+}
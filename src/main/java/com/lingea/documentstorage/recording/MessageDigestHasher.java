@@ -0,0 +1,43 @@
+package com.lingea.documentstorage.recording;
+
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/** Hasher of a cryptographic algorithm provided by the JDK. */
+class MessageDigestHasher implements Hasher {
+    private final MessageDigest digest;
+
+    MessageDigestHasher(String algorithm) {
+        try {
+            this.digest = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void update(byte[] bytes, int offset, int length) {
+        digest.update(bytes, offset, length);
+    }
+
+    @Override
+    public void update(ByteBuffer buffer) {
+        digest.update(buffer);
+    }
+
+    @Override
+    public byte[] digest() {
+        return digest.digest();
+    }
+
+    @Override
+    public void digestInto(byte[] bytes, int offset) {
+        try {
+            digest.digest(bytes, offset, digest.getDigestLength());
+        } catch (DigestException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.lingea.documentstorage.recording;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Hasher of the 128-bit x64 variant of MurmurHash3 with the seed 0, the digest is h1 followed by h2,
+ * both little endian, as in the reference implementation. It is not cryptographic, but it is several
+ * times faster than MD5 and its 128 bits make accidental collisions as unlikely.
+ */
+class Murmur3Hasher implements Hasher {
+    private static final int BLOCK_SIZE = 16;
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private long h1;
+    private long h2;
+    private long length;
+    private final byte[] tail = new byte[BLOCK_SIZE];
+    private int tailLength;
+
+    @Override
+    public void update(byte[] bytes, int offset, int length) {
+        this.length += length;
+        if (tailLength > 0) {
+            int count = Math.min(BLOCK_SIZE - tailLength, length);
+            System.arraycopy(bytes, offset, tail, tailLength, count);
+            tailLength += count;
+            offset += count;
+            length -= count;
+            if (tailLength < BLOCK_SIZE) {
+                return;
+            }
+            block(getLong(tail, 0), getLong(tail, 8));
+            tailLength = 0;
+        }
+        if (length >= BLOCK_SIZE) {
+            // the little endian view reads a long at once instead of byte by byte
+            ByteBuffer view = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            while (length >= BLOCK_SIZE) {
+                block(view.getLong(offset), view.getLong(offset + 8));
+                offset += BLOCK_SIZE;
+                length -= BLOCK_SIZE;
+            }
+        }
+        System.arraycopy(bytes, offset, tail, 0, length);
+        tailLength = length;
+    }
+
+    @Override
+    public void update(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining() && (tailLength > 0 || buffer.remaining() < BLOCK_SIZE)) {
+            tail[tailLength++] = buffer.get();
+            length++;
+            if (tailLength == BLOCK_SIZE) {
+                block(getLong(tail, 0), getLong(tail, 8));
+                tailLength = 0;
+            }
+        }
+        while (buffer.remaining() >= BLOCK_SIZE) {
+            block(buffer.getLong(), buffer.getLong());
+            length += BLOCK_SIZE;
+        }
+        while (buffer.hasRemaining()) {
+            tail[tailLength++] = buffer.get();
+            length++;
+        }
+        buffer.order(order);
+    }
+
+    @Override
+    public byte[] digest() {
+        byte[] result = new byte[BLOCK_SIZE];
+        digestInto(result, 0);
+        return result;
+    }
+
+    @Override
+    public void digestInto(byte[] bytes, int offset) {
+        long k1 = 0;
+        long k2 = 0;
+        for (int i = tailLength - 1; i >= 8; i--) {
+            k2 = (k2 << 8) | (tail[i] & 0xff);
+        }
+        for (int i = Math.min(tailLength, 8) - 1; i >= 0; i--) {
+            k1 = (k1 << 8) | (tail[i] & 0xff);
+        }
+        if (tailLength > 8) {
+            h2 ^= mixK2(k2);
+        }
+        if (tailLength > 0) {
+            h1 ^= mixK1(k1);
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+
+        putLong(bytes, offset, h1);
+        putLong(bytes, offset + 8, h2);
+        h1 = 0;
+        h2 = 0;
+        length = 0;
+        tailLength = 0;
+    }
+
+    private void block(long k1, long k2) {
+        h1 ^= mixK1(k1);
+        h1 = Long.rotateLeft(h1, 27);
+        h1 += h2;
+        h1 = h1 * 5 + 0x52dce729;
+
+        h2 ^= mixK2(k2);
+        h2 = Long.rotateLeft(h2, 31);
+        h2 += h1;
+        h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    private static long mixK1(long k1) {
+        return Long.rotateLeft(k1 * C1, 31) * C2;
+    }
+
+    private static long mixK2(long k2) {
+        return Long.rotateLeft(k2 * C2, 33) * C1;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private static long getLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = offset + 7; i >= offset; i--) {
+            value = (value << 8) | (bytes[i] & 0xff);
+        }
+        return value;
+    }
+
+    private static void putLong(byte[] bytes, int offset, long value) {
+        for (int i = offset; i < offset + 8; i++) {
+            bytes[i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+}
@@ -1,12 +1,24 @@
 package com.lingea.documentstorage.recording;
 
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
+/**
+ * Checksums of the records computed with the default algorithm, see {@link ChecksumAlgorithm}
+ * for the other algorithms.
+ */
 public class RecordChecksum {
+    /** Algorithm of the checksums computed by this class. */
+    public static final ChecksumAlgorithm DEFAULT_ALGORITHM = ChecksumAlgorithm.MD5;
+
+    /** Returns the checksum of the UTF-8 encoding of the text. */
+    public static String getChecksum(CharSequence text) {
+        return DEFAULT_ALGORITHM.checksum(text);
+    }
 
     public static String getChecksum(String text) {
-        return RecordChecksum.getChecksum(text.getBytes());
+        return DEFAULT_ALGORITHM.checksum(text);
     }
 
     public static String getChecksum(Object obj) {
@@ -14,19 +26,28 @@ public class RecordChecksum {
     }
 
     public static String getChecksum(byte[] msg) {
-        byte[] hash = null;
+        return DEFAULT_ALGORITHM.checksum(msg);
+    }
 
+    /** Returns the checksum of the remaining bytes of the buffer, the position of the buffer is not changed. */
+    public static String getChecksum(ByteBuffer buffer) {
+        return DEFAULT_ALGORITHM.checksum(buffer);
+    }
+
+    /**
+     * Returns a new digest of the checksum algorithm, for computing
+     * the checksum of data which are not available at once.
+     */
+    public static MessageDigest newDigest() {
         try {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            hash = md.digest(msg);
+            return MessageDigest.getInstance("MD5");
         } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        }
-        StringBuilder strBuilder = new StringBuilder();
-        for (byte b : hash) {
-            strBuilder.append(String.format("%02x", b));
+            throw new IllegalStateException(e);
         }
+    }
 
-        return strBuilder.toString();
+    /** Converts a computed digest to the checksum string. */
+    public static String toHex(byte[] hash) {
+        return Digest.toHex(hash);
     }
 }
@@ -0,0 +1,192 @@
+package com.lingea.documentstorage.utils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded pool of database connections.
+ * Connections are opened lazily and initialized once by the factory, closing a borrowed connection returns it
+ * to the pool. Statements left open by the borrower are closed and an unfinished transaction is rolled back
+ * before the connection is reused. A thread gets back the connection it has used last if it is idle,
+ * so repeated lookups of one thread keep hitting the same warm page cache.
+ */
+public class ConnectionPool implements AutoCloseable {
+    private static final long ACQUIRE_TIMEOUT_SECONDS = 60;
+    private static final int MAX_TRACKED_STATEMENTS = 64;
+
+    /** Opens and initializes a new physical connection. */
+    public interface ConnectionFactory {
+        Connection open() throws SQLException;
+    }
+
+    private final String name;
+    private final ConnectionFactory factory;
+    private final Semaphore permits;
+    private final Deque<Connection> idle = new ArrayDeque<>();
+    private final ThreadLocal<Connection> lastUsed = new ThreadLocal<>();
+    private boolean closed;
+
+    /**
+     * @param name - name of the pool used in error messages
+     * @param maxSize - maximal number of connections open at the same time
+     * @param factory - factory of the physical connections
+     */
+    public ConnectionPool(String name, int maxSize, ConnectionFactory factory) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Pool size must be positive");
+        }
+        this.name = name;
+        this.factory = factory;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Borrows a connection, waiting for one to be returned if all of them are in use.
+     * The connection has to be closed to be returned to the pool.
+     */
+    public Connection getConnection() throws SQLException {
+        try {
+            if (!permits.tryAcquire(ACQUIRE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                throw new SQLException("Timed out waiting for a connection from the " + name + " pool");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection from the " + name + " pool", e);
+        }
+
+        try {
+            Connection physical = takeIdle();
+            if (physical == null) {
+                physical = factory.open();
+            }
+            lastUsed.set(physical);
+            return wrap(physical);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /** Closes all connections, connections borrowed at the moment are closed when they are returned. */
+    @Override
+    public synchronized void close() throws SQLException {
+        closed = true;
+        for (Connection connection : idle) {
+            connection.close();
+        }
+        idle.clear();
+    }
+
+    private synchronized Connection takeIdle() throws SQLException {
+        if (closed) {
+            throw new SQLException("The " + name + " connection pool has been closed");
+        }
+        Connection preferred = lastUsed.get();
+        if (preferred != null && idle.remove(preferred)) {
+            return preferred;
+        }
+        // the most recently returned connection has the warmest cache
+        return idle.pollFirst();
+    }
+
+    private void release(Connection physical, List<Statement> statements) {
+        boolean reusable = true;
+        try {
+            for (Statement statement : statements) {
+                statement.close();
+            }
+            if (!physical.getAutoCommit()) {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            reusable = false;
+        }
+
+        synchronized (this) {
+            if (reusable && !closed) {
+                idle.addFirst(physical);
+            } else {
+                try {
+                    physical.close();
+                } catch (SQLException e) {
+                    // the connection is dropped anyway
+                }
+            }
+        }
+        permits.release();
+    }
+
+    private static boolean isClosed(Statement statement) {
+        try {
+            return statement.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    private Connection wrap(Connection physical) {
+        return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, new PooledConnection(physical));
+    }
+
+    /** Handler of a borrowed connection, closing it returns the physical connection to the pool. */
+    private class PooledConnection implements InvocationHandler {
+        private final Connection physical;
+        private final List<Statement> statements = new ArrayList<>();
+        private boolean returned;
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+            case "close":
+                if (!returned) {
+                    returned = true;
+                    release(physical, statements);
+                }
+                return null;
+            case "isClosed":
+                return returned || physical.isClosed();
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "Pooled " + physical;
+            default:
+                break;
+            }
+
+            if (returned) {
+                throw new SQLException("Connection has been returned to the " + name + " pool");
+            }
+            try {
+                Object result = method.invoke(physical, args);
+                if (result instanceof Statement) {
+                    if (statements.size() >= MAX_TRACKED_STATEMENTS) {
+                        statements.removeIf(ConnectionPool::isClosed);
+                    }
+                    statements.add((Statement) result);
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
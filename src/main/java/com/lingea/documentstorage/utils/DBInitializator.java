@@ -7,23 +7,75 @@ import java.io.InputStream;
 import java.io.Reader;
 import java.io.StringReader;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 
+import org.sqlite.SQLiteConfig;
+
+import com.lingea.documentstorage.recording.ChecksumAlgorithm;
+import com.lingea.documentstorage.recording.Digest;
+
 public class DBInitializator {
     private static final String DATABASE_NAME = "documentStorage.db";
     private static final String DATABASE_POPULATE_FILE = "create_database.sql";
+    private static final String[] HASH_TABLES = { "Document", "Paragraph", "Sentence", "Chunk" };
+    private static final int MIGRATION_BATCH_SIZE = 10000;
+
+    /**
+     * Upgrades of the schema in the order of their versions, new migrations are appended with the next version.
+     * Databases created before the SchemaVersion table have their version in PRAGMA user_version.
+     */
+    private static final SchemaMigration[] MIGRATIONS = {
+            new SchemaMigration(1, "Store hashes as digest bytes", DBInitializator::convertHashes),
+            SchemaMigration.of(2, "Create the Chunk table",
+                    "CREATE TABLE IF NOT EXISTS Chunk (id INTEGER PRIMARY KEY AUTOINCREMENT, hash BLOB UNIQUE)"),
+            // the hash and url columns are indexed by their UNIQUE constraints,
+            // the indexes cover the lookups of DocumentRecord, OccurrenceRecord and the joins of DocumentMapper
+            SchemaMigration.of(3, "Add covering indexes",
+                    "CREATE INDEX IF NOT EXISTS OccurrenceDocumentIndex ON Occurrence (document, url, time, indexerId)",
+                    "CREATE INDEX IF NOT EXISTS OccurrenceUrlIndex ON Occurrence (url, time, document, indexerId)",
+                    "CREATE INDEX IF NOT EXISTS PoSIndex ON ParagraphOfSentence (paragraph, sentence, position)",
+                    "CREATE INDEX IF NOT EXISTS SoPIndex ON ParagraphOfSentence (sentence, paragraph)",
+                    "CREATE INDEX IF NOT EXISTS DoPIndex ON DocumentOfParagraph (document, paragraph, position)",
+                    "CREATE INDEX IF NOT EXISTS PoDIndex ON DocumentOfParagraph (paragraph, document)",
+                    "CREATE INDEX IF NOT EXISTS SOIndex ON SentenceOccurrence (sentence, document, paragraph)",
+                    "CREATE INDEX IF NOT EXISTS DoSIndex ON SentenceOccurrence (document, sentence)"),
+            new SchemaMigration(4, "Create the Setting table", DBInitializator::createSettings)
+    };
 
     private final String dirPath;
+    private final StorageConfig config;
+    private final ConnectionPool writerPool;
+    private final ConnectionPool readerPool;
 
     public DBInitializator(String dirPath) throws SQLException, IOException {
+        this(dirPath, StorageConfig.defaults());
+    }
+
+    /**
+     * Opens the database, creating it if it does not exist.
+     * @param dirPath - directory of the database.
+     * @param config - connection settings and pool sizes.
+     */
+    public DBInitializator(String dirPath, StorageConfig config) throws SQLException, IOException {
         this.dirPath = dirPath;
+        this.config = config;
+        this.writerPool = new ConnectionPool("writer", config.getWriters(), () -> openConnection(false));
+        this.readerPool = new ConnectionPool("reader", config.getReaders(), () -> openConnection(true));
 
         File dbFile = new File(dirPath + DBInitializator.DATABASE_NAME);
 
         if (!dbFile.exists()) {
             populate();
-            createIndices();
+        }
+        migrate();
+        try {
+            checkChecksumAlgorithms();
+        } catch (IllegalArgumentException e) {
+            close();
+            throw e;
         }
     }
 
@@ -56,33 +108,235 @@ public class DBInitializator {
 
     }
 
-    private void createIndices() throws SQLException, IOException {
-        System.out.println("Creating indices.");
+    /**
+     * Applies the migrations newer than the version of the database, each of them in its own transaction.
+     * A failed migration is rolled back and the database stays at the version of the last successful one.
+     */
+    private void migrate() throws SQLException, IOException {
+        try (Connection conn = getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS SchemaVersion "
+                    + "(version INTEGER PRIMARY KEY, description TEXT, appliedAt INTEGER)");
+            int version = getSchemaVersion(conn);
+            if (version >= MIGRATIONS[MIGRATIONS.length - 1].getVersion()) {
+                return;
+            }
+
+            boolean foreignKeys;
+            try (ResultSet rs = stmt.executeQuery("PRAGMA foreign_keys")) {
+                foreignKeys = rs.next() && rs.getBoolean(1);
+            }
+            // rebuilding a table would otherwise delete the rows referencing it, the pragma is ignored in a transaction
+            stmt.execute("PRAGMA foreign_keys = OFF");
+            try {
+                for (SchemaMigration migration : MIGRATIONS) {
+                    if (migration.getVersion() > version) {
+                        apply(conn, migration);
+                    }
+                }
+            } finally {
+                stmt.execute("PRAGMA foreign_keys = " + (foreignKeys ? "ON" : "OFF"));
+            }
+        }
+    }
+
+    private static void apply(Connection conn, SchemaMigration migration) throws SQLException {
+        System.out.println("Migrating database to version " + migration.getVersion() + ": "
+                + migration.getDescription());
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement();
+                PreparedStatement insert = conn.prepareStatement(
+                        "INSERT INTO SchemaVersion (version, description, appliedAt) VALUES (?, ?, ?)")) {
+            migration.apply(conn);
+            insert.setInt(1, migration.getVersion());
+            insert.setString(2, migration.getDescription());
+            insert.setLong(3, System.currentTimeMillis());
+            insert.executeUpdate();
+            // kept for the versions of this library which know only the pragma
+            stmt.executeUpdate("PRAGMA user_version = " + migration.getVersion());
+            conn.commit();
+        } catch (SQLException | RuntimeException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Stores the checksum algorithms of the levels when the storage is opened for the first time, later the
+     * configuration must have the same ones, since the records hashed with another algorithm are not recognized.
+     * @throws IllegalArgumentException if the configuration has another algorithm than the stored one
+     */
+    private void checkChecksumAlgorithms() throws SQLException, IOException {
+        try (Connection conn = getConnection();
+                PreparedStatement select = conn.prepareStatement("SELECT value FROM Setting WHERE name = ?");
+                PreparedStatement insert = conn.prepareStatement(
+                        "INSERT OR IGNORE INTO Setting (name, value) VALUES (?, ?)")) {
+            for (StorageLevel level : StorageLevel.values()) {
+                String name = getChecksumAlgorithmSetting(level);
+                ChecksumAlgorithm algorithm = config.getChecksumAlgorithm(level);
+                select.setString(1, name);
+                try (ResultSet rs = select.executeQuery()) {
+                    if (rs.next()) {
+                        if (!algorithm.name().equals(rs.getString(1))) {
+                            throw new IllegalArgumentException("The storage has " + level + " checksums of "
+                                    + rs.getString(1) + ", the configuration has " + algorithm);
+                        }
+                        continue;
+                    }
+                }
+                insert.setString(1, name);
+                insert.setString(2, algorithm.name());
+                insert.executeUpdate();
+            }
+        }
+    }
+
+    /** Creates the Setting table, the records of the databases created before it have been hashed by MD5. */
+    private static void createSettings(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS Setting (name TEXT PRIMARY KEY, value TEXT NOT NULL)");
+        }
+        try (Statement stmt = conn.createStatement();
+                PreparedStatement insert = conn.prepareStatement(
+                        "INSERT OR IGNORE INTO Setting (name, value) VALUES (?, ?)")) {
+            for (StorageLevel level : StorageLevel.values()) {
+                try (ResultSet rs = stmt.executeQuery("SELECT 1 FROM " + getTableName(level) + " LIMIT 1")) {
+                    if (!rs.next()) {
+                        continue;
+                    }
+                }
+                insert.setString(1, getChecksumAlgorithmSetting(level));
+                insert.setString(2, ChecksumAlgorithm.MD5.name());
+                insert.executeUpdate();
+            }
+        }
+    }
+
+    private static String getChecksumAlgorithmSetting(StorageLevel level) {
+        return "checksumAlgorithm." + level;
+    }
+
+    private static String getTableName(StorageLevel level) {
+        switch (level) {
+        case SENTENCE:
+            return "Sentence";
+        case PARAGRAPH:
+            return "Paragraph";
+        default:
+            return "Document";
+        }
+    }
 
-        String[] queries = {
-                "CREATE INDEX IF NOT EXISTS ParagraphIndex ON Paragraph (hash)",
-                "CREATE INDEX IF NOT EXISTS SentenceIndex ON Sentence (hash)",
-                /*"CREATE INDEX IF NOT EXISTS PoSIndex ON ParagraphOfSentence (paragraph, sentence)",
-                "CREATE INDEX IF NOT EXISTS DoPIndex ON DocumentOfParagraph (document, paragraph)",
-                "CREATE INDEX IF NOT EXISTS Dop2Index ON DocumentOfParagraph (paragraph, sentence, position)",
-                "CREATE INDEX IF NOT EXISTS SOIndex ON SentenceOccurrence (document, paragraph, sentence)"*/
-        };
+    /** Returns the version of the last applied migration, 0 for a database which has not been migrated. */
+    private static int getSchemaVersion(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            int version;
+            try (ResultSet rs = stmt.executeQuery("SELECT max(version) FROM SchemaVersion")) {
+                version = rs.next() ? rs.getInt(1) : 0;
+            }
+            try (ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+                return Math.max(version, rs.next() ? rs.getInt(1) : 0);
+            }
+        }
+    }
 
-        Connection conn = getConnection();
+    /** Returns the declared type of the column, null if the table or the column does not exist. */
+    private static String getColumnType(Connection conn, String table, String column) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (column.equalsIgnoreCase(rs.getString("name"))) {
+                    return rs.getString("type");
+                }
+            }
+        }
+        return null;
+    }
 
-        for (String query : queries) {
-            Statement stmt = conn.createStatement();
-            stmt.executeUpdate(query);
+    /** Converts the hex hashes of the tables which still have them to the digest bytes. */
+    private static void convertHashes(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            // the old schema had a second index on the UNIQUE hash columns
+            stmt.executeUpdate("DROP INDEX IF EXISTS ParagraphIndex");
+            stmt.executeUpdate("DROP INDEX IF EXISTS SentenceIndex");
+        }
+        for (String table : HASH_TABLES) {
+            String type = getColumnType(conn, table, "hash");
+            if (type != null && !"BLOB".equalsIgnoreCase(type)) {
+                System.out.println("Converting hashes of " + table + " to binary.");
+                convertHashes(conn, table);
+            }
         }
+    }
 
-        conn.close();
+    /** Rebuilds the table with the hex hashes converted to the digest bytes, the ids are kept. */
+    private static void convertHashes(Connection conn, String table) throws SQLException {
+        String converted = table + "Binary";
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE " + converted + " (id INTEGER PRIMARY KEY AUTOINCREMENT, hash BLOB UNIQUE)");
+            try (ResultSet rs = stmt.executeQuery("SELECT id, hash FROM " + table);
+                    PreparedStatement insert = conn.prepareStatement(
+                            "INSERT INTO " + converted + " (id, hash) VALUES (?, ?)")) {
+                int batched = 0;
+                while (rs.next()) {
+                    String hash = rs.getString(2);
+                    insert.setLong(1, rs.getLong(1));
+                    try {
+                        insert.setBytes(2, hash == null ? null : Digest.parseHex(hash));
+                    } catch (IllegalArgumentException e) {
+                        throw new SQLException("Can't convert the hash of " + table + " " + rs.getLong(1), e);
+                    }
+                    insert.addBatch();
+                    if (++batched == MIGRATION_BATCH_SIZE) {
+                        insert.executeBatch();
+                        batched = 0;
+                    }
+                }
+                insert.executeBatch();
+            }
+            stmt.executeUpdate("DROP TABLE " + table);
+            stmt.executeUpdate("ALTER TABLE " + converted + " RENAME TO " + table);
+        }
     }
 
+    /**
+     * Borrows a connection for modifications from the pool, closing the connection returns it.
+     * @return - pooled connection
+     */
     public Connection getConnection() throws SQLException, IOException {
-        Connection conn;
+        return writerPool.getConnection();
+    }
+
+    /**
+     * Borrows a read-only connection for lookups from the pool, closing the connection returns it.
+     * @return - pooled read-only connection
+     */
+    public Connection getReadConnection() throws SQLException, IOException {
+        return readerPool.getConnection();
+    }
+
+    /** Closes all pooled connections. */
+    public void close() throws SQLException {
+        readerPool.close();
+        writerPool.close();
+    }
+
+    /** Opens a physical connection, the settings are applied once for the lifetime of the connection. */
+    private Connection openConnection(boolean readOnly) throws SQLException {
+        SQLiteConfig sqliteConfig = new SQLiteConfig();
+        sqliteConfig.setBusyTimeout(config.getBusyTimeoutMillis());
+        sqliteConfig.setReadOnly(readOnly);
         String dbUrl = "jdbc:sqlite:" + this.dirPath + DBInitializator.DATABASE_NAME;
-        conn = DriverManager.getConnection(dbUrl);
-        System.out.println("Connection to SQLite has been established.");
+        Connection conn = DriverManager.getConnection(dbUrl, sqliteConfig.toProperties());
+        try (Statement stmt = conn.createStatement()) {
+            for (String pragma : config.getPragmas(readOnly)) {
+                stmt.execute(pragma);
+            }
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
         return conn;
     }
 }
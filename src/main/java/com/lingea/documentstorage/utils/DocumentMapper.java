@@ -4,6 +4,7 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -11,6 +12,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import com.lingea.documentstorage.database.StagingTable;
+
 enum Converter {
     ParagraphOfSentence,
     DocumentOfParagraph,
@@ -55,6 +58,8 @@ enum Converter {
 }
 
 public class DocumentMapper {
+    private static final String HASH = "hash";
+
     public static List<Map<String, String>> executeNonOver(Connection conn, String[] inValues, 
                 String inType, String[] outType, MapLevel inLevel, MapLevel outLevel, boolean includeOrigin) throws SQLException {
 
@@ -62,19 +67,27 @@ public class DocumentMapper {
         String from = getFromClause(inLevel, outLevel);
         String where = "WHERE ";
         if (inValues.length > 0) {
-            where += buildParam(inLevel, inType) + " IN " + concatValues(inValues) + "AND " + getWhereClauseAppendix(inLevel, outLevel);
+            where += buildParam(inLevel, inType) + " IN (SELECT value FROM " + StagingTable.TABLE + ") AND "
+                    + getWhereClauseAppendix(inLevel, outLevel);
         } else {
             where += getWhereClauseAppendix(inLevel, outLevel);
         }
         String query = select + " " + from + " " + where + ";";
 
-        PreparedStatement stmt = conn.prepareStatement(query);
-
-        // IN
-        for (int i = 0; i < inValues.length; i++) {
-            stmt.setString(1 + i, inValues[i]);
+        try (StagingTable staging = new StagingTable(conn)) {
+            // IN, hashes are stored as the bytes of the digest
+            if (HASH.equals(inType)) {
+                staging.addHashes(Arrays.asList(inValues));
+            } else {
+                staging.addValues(Arrays.asList(inValues));
+            }
+            return executeQuery(conn, query, inLevel, inType, outType, includeOrigin);
         }
+    }
 
+    private static List<Map<String, String>> executeQuery(Connection conn, String query, MapLevel inLevel,
+            String inType, String[] outType, boolean includeOrigin) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(query);
         ResultSet rs = stmt.executeQuery();
 
         List<Map<String, String>> resultList = new LinkedList<>();
@@ -113,14 +126,14 @@ public class DocumentMapper {
         StringBuilder builder = new StringBuilder();
         builder.append("SELECT DISTINCT ");
         if (includeOrigin) {
-            builder.append(buildParam(inLevel, inType));
+            builder.append(buildSelectParam(inLevel, inType));
             for (int i = 0; i < outType.length; i++) {
-                builder.append(", " + buildParam(outLevel, outType[i]));
+                builder.append(", " + buildSelectParam(outLevel, outType[i]));
             }
         } else {
-            builder.append(buildParam(outLevel, outType[0]));
+            builder.append(buildSelectParam(outLevel, outType[0]));
             for (int i = 1; i < outType.length; i++) {
-                builder.append(", " + buildParam(outLevel, outType[i]));
+                builder.append(", " + buildSelectParam(outLevel, outType[i]));
             }
         }
 
@@ -137,20 +150,6 @@ public class DocumentMapper {
         return builder.toString();
     }
 
-    private static String concatValues(String[] values) {
-        StringBuilder builder = new StringBuilder();
-        builder.append("(");
-        for (int i = 0; i < values.length - 1; i++) {
-            builder.append("?, ");
-        }
-        if (values.length > 0) {
-            builder.append("?");
-        }
-        builder.append(")");
-
-        return builder.toString();
-    }
-
     private static String getFromByConverter(Converter converter) {
         StringBuilder builder = new StringBuilder();
         switch (converter) {
@@ -183,6 +182,14 @@ public class DocumentMapper {
         return level + "." + type;
     }
 
+    /** Selected column, hashes are converted from the digest bytes to the hex string. */
+    private static String buildSelectParam(MapLevel level, String type) {
+        if (HASH.equals(type)) {
+            return "lower(hex(" + buildParam(level, type) + "))";
+        }
+        return buildParam(level, type);
+    }
+
     private static String getWhereClauseAppendix(MapLevel inLevel, MapLevel outLevel) {
         StringBuilder builder = new StringBuilder();
         builder.append(getWhereByConverter(Converter.getConverter(inLevel, outLevel)));
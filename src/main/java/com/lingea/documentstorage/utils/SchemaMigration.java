@@ -0,0 +1,51 @@
+package com.lingea.documentstorage.utils;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Step of the upgrade of the database schema to the given version. Migrations are applied in the order
+ * of their versions, each of them in its own transaction together with its row in the SchemaVersion table.
+ * A migration must be idempotent, it may find some of its changes done already, e.g. in a database
+ * created by create_database.sql.
+ */
+final class SchemaMigration {
+    /** Changes of the schema, run inside the transaction of the migration. */
+    interface Step {
+        void apply(Connection conn) throws SQLException;
+    }
+
+    private final int version;
+    private final String description;
+    private final Step step;
+
+    SchemaMigration(int version, String description, Step step) {
+        this.version = version;
+        this.description = description;
+        this.step = step;
+    }
+
+    /** Returns the migration running the queries, which must be idempotent, e.g. CREATE ... IF NOT EXISTS. */
+    static SchemaMigration of(int version, String description, String... queries) {
+        return new SchemaMigration(version, description, conn -> {
+            try (Statement stmt = conn.createStatement()) {
+                for (String query : queries) {
+                    stmt.executeUpdate(query);
+                }
+            }
+        });
+    }
+
+    int getVersion() {
+        return this.version;
+    }
+
+    String getDescription() {
+        return this.description;
+    }
+
+    void apply(Connection conn) throws SQLException {
+        step.apply(conn);
+    }
+}
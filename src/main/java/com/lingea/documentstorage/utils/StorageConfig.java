@@ -0,0 +1,351 @@
+package com.lingea.documentstorage.utils;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import com.lingea.documentstorage.io.Codec;
+import com.lingea.documentstorage.io.CodecPolicy;
+import com.lingea.documentstorage.io.IndexEntry;
+import com.lingea.documentstorage.recording.ChecksumAlgorithm;
+import com.lingea.documentstorage.recording.RecordChecksum;
+
+/**
+ * Configuration of the document storage: the SQLite settings applied to every pooled connection
+ * when it is opened, the sizes of the connection pools and the layout of the data files.
+ * The named profiles are starting points which can be adjusted with the {@code with} methods.
+ * The journal mode is stored in the database file, a database switched to WAL stays in WAL
+ * even when it is later opened with a profile which does not set the journal mode.
+ */
+public class StorageConfig {
+    /** Named sets of settings. */
+    public enum Profile {
+        /** SQLite defaults, rollback journal and full sync. */
+        DEFAULT,
+        /** Loading large amounts of data, WAL with relaxed sync, large cache and memory mapped reads. */
+        BULK_INGEST,
+        /** Mostly lookups, WAL, read-only reader connections and a large memory map. */
+        SERVING
+    }
+
+    private static final int DEFAULT_WRITERS = 4;
+    private static final int DEFAULT_READERS = Math.max(4, Runtime.getRuntime().availableProcessors());
+    private static final int DEFAULT_BUSY_TIMEOUT_MILLIS = 5000;
+    private static final int DEFAULT_WRITE_BATCH_SIZE = 256;
+    private static final long DEFAULT_WRITE_LINGER_MILLIS = 5;
+    private static final long DEFAULT_HASH_CACHE_BYTES = 32L << 20;
+    private static final long DEFAULT_HASH_FILTER_CAPACITY = 1L << 20;
+    private static final double DEFAULT_HASH_FILTER_FALSE_POSITIVE_RATE = 0.01;
+
+    private final Profile profile;
+    private String journalMode;
+    private String synchronous;
+    private long cacheSizeKib;
+    private long mmapSize;
+    private boolean tempStoreInMemory;
+    private int walAutocheckpoint;
+    private int readers = DEFAULT_READERS;
+    private int writers = DEFAULT_WRITERS;
+    private int busyTimeoutMillis = DEFAULT_BUSY_TIMEOUT_MILLIS;
+    private long maxSegmentSize = IndexEntry.MAX_SEGMENT_SIZE;
+    private boolean chunking;
+    private int writeBatchSize = DEFAULT_WRITE_BATCH_SIZE;
+    private long writeLingerMillis = DEFAULT_WRITE_LINGER_MILLIS;
+    private long hashCacheBytes = DEFAULT_HASH_CACHE_BYTES;
+    private long hashFilterCapacity = DEFAULT_HASH_FILTER_CAPACITY;
+    private double hashFilterFalsePositiveRate = DEFAULT_HASH_FILTER_FALSE_POSITIVE_RATE;
+    private boolean parallelHashing;
+    private final Map<StorageLevel, ChecksumAlgorithm> checksumAlgorithms = new EnumMap<>(StorageLevel.class);
+    private final Map<StorageLevel, CodecPolicy> codecPolicies = new EnumMap<>(StorageLevel.class);
+
+    private StorageConfig(Profile profile) {
+        this.profile = profile;
+    }
+
+    /** Returns the configuration of the profile. */
+    public static StorageConfig forProfile(Profile profile) {
+        StorageConfig config = new StorageConfig(profile);
+        switch (profile) {
+        case BULK_INGEST:
+            config.journalMode = "WAL";
+            config.synchronous = "NORMAL";
+            config.cacheSizeKib = 256 * 1024;
+            config.mmapSize = 1L << 30;
+            config.tempStoreInMemory = true;
+            // fewer, larger checkpoints while loading
+            config.walAutocheckpoint = 16 * 1024;
+            config.readers = 2;
+            config.hashCacheBytes = 256L << 20;
+            config.parallelHashing = true;
+            break;
+        case SERVING:
+            config.journalMode = "WAL";
+            config.synchronous = "NORMAL";
+            config.cacheSizeKib = 64 * 1024;
+            config.mmapSize = 4L << 30;
+            config.tempStoreInMemory = true;
+            config.writers = 1;
+            break;
+        default:
+            break;
+        }
+        return config;
+    }
+
+    /** Returns the configuration with the SQLite defaults. */
+    public static StorageConfig defaults() {
+        return forProfile(Profile.DEFAULT);
+    }
+
+    /** Returns the configuration for loading large amounts of data. */
+    public static StorageConfig bulkIngest() {
+        return forProfile(Profile.BULK_INGEST);
+    }
+
+    /** Returns the configuration for serving lookups. */
+    public static StorageConfig serving() {
+        return forProfile(Profile.SERVING);
+    }
+
+    /**
+     * Returns the PRAGMA statements run on a new connection.
+     * @param readOnly - true for the connections of the reader pool.
+     */
+    public List<String> getPragmas(boolean readOnly) {
+        List<String> pragmas = new ArrayList<>();
+        if (journalMode != null && !readOnly) {
+            pragmas.add("PRAGMA journal_mode=" + journalMode);
+        }
+        if (synchronous != null && !readOnly) {
+            pragmas.add("PRAGMA synchronous=" + synchronous);
+        }
+        if (walAutocheckpoint > 0 && !readOnly) {
+            pragmas.add("PRAGMA wal_autocheckpoint=" + walAutocheckpoint);
+        }
+        if (cacheSizeKib > 0) {
+            // a negative cache size is in KiB instead of pages
+            pragmas.add("PRAGMA cache_size=-" + cacheSizeKib);
+        }
+        if (mmapSize > 0) {
+            pragmas.add("PRAGMA mmap_size=" + mmapSize);
+        }
+        if (tempStoreInMemory) {
+            pragmas.add("PRAGMA temp_store=MEMORY");
+        }
+        return pragmas;
+    }
+
+    /**
+     * Sets the journal mode, e.g. "WAL" or "DELETE", null keeps the mode of the database.
+     * @return - this configuration
+     */
+    public StorageConfig withJournalMode(String journalMode) {
+        this.journalMode = journalMode;
+        return this;
+    }
+
+    /**
+     * Sets the synchronous mode, e.g. "FULL", "NORMAL" or "OFF", null keeps the SQLite default.
+     * @return - this configuration
+     */
+    public StorageConfig withSynchronous(String synchronous) {
+        this.synchronous = synchronous;
+        return this;
+    }
+
+    /**
+     * Sets the page cache size of every connection, 0 keeps the SQLite default.
+     * @return - this configuration
+     */
+    public StorageConfig withCacheSizeKib(long cacheSizeKib) {
+        this.cacheSizeKib = cacheSizeKib;
+        return this;
+    }
+
+    /**
+     * Sets the number of bytes of the database file read through a memory map, 0 disables the map.
+     * @return - this configuration
+     */
+    public StorageConfig withMmapSize(long mmapSize) {
+        this.mmapSize = mmapSize;
+        return this;
+    }
+
+    /**
+     * Sets the maximal number of reader and writer connections.
+     * @return - this configuration
+     */
+    public StorageConfig withPoolSizes(int readers, int writers) {
+        this.readers = readers;
+        this.writers = writers;
+        return this;
+    }
+
+    /**
+     * Sets how long a connection waits for a lock held by another connection.
+     * @return - this configuration
+     */
+    public StorageConfig withBusyTimeoutMillis(int busyTimeoutMillis) {
+        this.busyTimeoutMillis = busyTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * Sets the size at which the data files roll over to a new segment.
+     * @return - this configuration
+     */
+    public StorageConfig withMaxSegmentSize(long maxSegmentSize) {
+        this.maxSegmentSize = maxSegmentSize;
+        return this;
+    }
+
+    /**
+     * Turns the content-defined chunking of documents on or off.
+     * @return - this configuration
+     */
+    public StorageConfig withChunking(boolean chunking) {
+        this.chunking = chunking;
+        return this;
+    }
+
+    /**
+     * Sets the batching of the documents saved asynchronously, at most batchSize documents are committed
+     * in one transaction and a batch waits at most lingerMillis for more documents to arrive.
+     * @return - this configuration
+     */
+    public StorageConfig withWriteBatch(int batchSize, long lingerMillis) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.writeBatchSize = batchSize;
+        this.writeLingerMillis = lingerMillis;
+        return this;
+    }
+
+    /**
+     * Sets the memory taken by the cache of paragraph ids and by the cache of sentence ids,
+     * see {@link com.lingea.documentstorage.database.HashIdCache}.
+     * @return - this configuration
+     */
+    public StorageConfig withHashCacheBytes(long hashCacheBytes) {
+        this.hashCacheBytes = hashCacheBytes;
+        return this;
+    }
+
+    /**
+     * Sets the initial capacity and the false positive rate of the Bloom filters of the paragraph and sentence
+     * hashes, the filters grow beyond the capacity when needed. A capacity of 0 turns the filters off.
+     * @return - this configuration
+     */
+    public StorageConfig withHashFilter(long capacity, double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1");
+        }
+        this.hashFilterCapacity = capacity;
+        this.hashFilterFalsePositiveRate = falsePositiveRate;
+        return this;
+    }
+
+    /**
+     * Sets the algorithm of the checksums of the level, e.g. {@link ChecksumAlgorithm#MURMUR3_128} for paragraphs
+     * and sentences or {@link ChecksumAlgorithm#SHA_256} for documents. The default is MD5. The algorithm must
+     * be the same every time the storage is opened, records hashed with another algorithm are not recognized.
+     * The algorithms are stored when the storage is created, opening it with other ones fails.
+     * @return - this configuration
+     */
+    public StorageConfig withChecksumAlgorithm(StorageLevel level, ChecksumAlgorithm algorithm) {
+        checksumAlgorithms.put(level, algorithm);
+        return this;
+    }
+
+    /**
+     * Turns on hashing the paragraphs and sentences of long documents in the common fork-join pool,
+     * see {@link com.lingea.documentstorage.recording.DigestArray#PARALLEL_THRESHOLD}. Short documents are
+     * always hashed on the calling thread.
+     * @return - this configuration
+     */
+    public StorageConfig withParallelHashing(boolean parallelHashing) {
+        this.parallelHashing = parallelHashing;
+        return this;
+    }
+
+    /**
+     * Sets the policy selecting the codec of the records of the level, the policy of the documents applies
+     * to the chunks of chunked documents as well. Records are stored uncompressed by default. The codec
+     * is flagged in the index entry of every record, so the policy may differ every time the storage is opened.
+     * @return - this configuration
+     */
+    public StorageConfig withCodecPolicy(StorageLevel level, CodecPolicy codecPolicy) {
+        codecPolicies.put(level, codecPolicy);
+        return this;
+    }
+
+    /**
+     * Compresses documents with Deflate, except the content types compressed already, and paragraphs
+     * and sentences with the dictionaries trained by {@code DocumentStorage.trainDictionary}.
+     * Compressed records cannot be returned without a copy by {@code getBinaryRecordBuffer}.
+     * @return - this configuration
+     */
+    public StorageConfig withCompression() {
+        return withCodecPolicy(StorageLevel.DOCUMENT, CodecPolicy.compressed(Codec.DEFLATE))
+                .withCodecPolicy(StorageLevel.PARAGRAPH, new CodecPolicy(Codec.DICTIONARY))
+                .withCodecPolicy(StorageLevel.SENTENCE, new CodecPolicy(Codec.DICTIONARY));
+    }
+
+    public Profile getProfile() {
+        return this.profile;
+    }
+
+    public int getReaders() {
+        return this.readers;
+    }
+
+    public int getWriters() {
+        return this.writers;
+    }
+
+    public int getBusyTimeoutMillis() {
+        return this.busyTimeoutMillis;
+    }
+
+    public long getMaxSegmentSize() {
+        return this.maxSegmentSize;
+    }
+
+    public boolean isChunking() {
+        return this.chunking;
+    }
+
+    public int getWriteBatchSize() {
+        return this.writeBatchSize;
+    }
+
+    public long getWriteLingerMillis() {
+        return this.writeLingerMillis;
+    }
+
+    public long getHashCacheBytes() {
+        return this.hashCacheBytes;
+    }
+
+    public long getHashFilterCapacity() {
+        return this.hashFilterCapacity;
+    }
+
+    public double getHashFilterFalsePositiveRate() {
+        return this.hashFilterFalsePositiveRate;
+    }
+
+    public boolean isParallelHashing() {
+        return this.parallelHashing;
+    }
+
+    public CodecPolicy getCodecPolicy(StorageLevel level) {
+        return codecPolicies.getOrDefault(level, CodecPolicy.uncompressed());
+    }
+
+    public ChecksumAlgorithm getChecksumAlgorithm(StorageLevel level) {
+        return checksumAlgorithms.getOrDefault(level, RecordChecksum.DEFAULT_ALGORITHM);
+    }
+}
@@ -1,16 +1,16 @@
 CREATE TABLE Sentence (
     id INTEGER PRIMARY KEY AUTOINCREMENT,
-    hash TEXT UNIQUE
+    hash BLOB UNIQUE
 );
 
 CREATE TABLE Paragraph (
     id INTEGER PRIMARY KEY AUTOINCREMENT,
-    hash TEXT UNIQUE
+    hash BLOB UNIQUE
 );
 
 CREATE TABLE Document (
     id INTEGER PRIMARY KEY AUTOINCREMENT,
-    hash TEXT UNIQUE
+    hash BLOB UNIQUE
 );
 
 CREATE TABLE ParagraphOfSentence (
@@ -0,0 +1,189 @@
+package com.lingea.documentstorage;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.lingea.documentstorage.database.DocumentRecord;
+import com.lingea.documentstorage.database.OccurrenceRecord;
+import com.lingea.documentstorage.exception.RecordNotFoundException;
+import com.lingea.documentstorage.recording.RecordChecksum;
+import com.lingea.documentstorage.utils.DocumentMapper;
+import com.lingea.documentstorage.utils.MapLevel;
+
+/**
+ * Checks the query plans of the lookups against a freshly created and migrated database, the queries
+ * are recorded while the lookups run and must be answered from the covering indexes without table scans.
+ */
+public class CoveringIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DocumentStorage storage;
+    private Connection target;
+    private Connection conn;
+    private final List<String> queries = new ArrayList<>();
+
+    @Before
+    public void open() throws Exception {
+        storage = new DocumentStorage(folder.getRoot().getPath() + "/");
+        target = storage.getReadConnection();
+        conn = recording(target);
+    }
+
+    @After
+    public void close() throws Exception {
+        conn.close();
+        storage.close();
+    }
+
+    @Test
+    public void documentLookupsUseIndexes() throws Exception {
+        String hash = RecordChecksum.getChecksum("document");
+        lookup(() -> DocumentRecord.getById(conn, 1));
+        lookup(() -> DocumentRecord.getByHash(conn, hash));
+        lookup(() -> DocumentRecord.getByUrlAndTime(conn, "http://a", 0, 10));
+        lookup(() -> DocumentRecord.getClosestBefore(conn, "http://a", 5));
+        lookup(() -> DocumentRecord.getClosestAfter(conn, "http://a", 5));
+        DocumentRecord.getTimeline(conn, "http://a", null, 10);
+        DocumentRecord.getByHashes(conn, Arrays.asList(hash));
+        DocumentRecord.getByIds(conn, new int[] { 1, 2 });
+
+        String plans = assertNoTableScans();
+        assertTrue(plans, plans.contains("COVERING INDEX OccurrenceDocumentIndex"));
+        assertTrue(plans, plans.contains("COVERING INDEX OccurrenceUrlIndex"));
+    }
+
+    @Test
+    public void occurrenceLookupUsesCoveringIndex() throws Exception {
+        lookup(() -> OccurrenceRecord.getByDocumentId(conn, 1));
+
+        String plans = assertNoTableScans();
+        assertTrue(plans, plans.contains("COVERING INDEX OccurrenceDocumentIndex"));
+    }
+
+    @Test
+    public void mappingsUseCoveringIndexes() throws Exception {
+        String[] hashes = { RecordChecksum.getChecksum("text") };
+        String[] ids = { "1" };
+        String[] id = { "id" };
+        DocumentMapper.executeNonOver(conn, hashes, "hash", id, MapLevel.SENTENCE, MapLevel.PARAGRAPH, false);
+        DocumentMapper.executeNonOver(conn, ids, "id", id, MapLevel.PARAGRAPH, MapLevel.SENTENCE, false);
+        DocumentMapper.executeNonOver(conn, ids, "id", id, MapLevel.DOCUMENT, MapLevel.PARAGRAPH, false);
+        DocumentMapper.executeNonOver(conn, ids, "id", id, MapLevel.PARAGRAPH, MapLevel.DOCUMENT, false);
+        DocumentMapper.executeNonOver(conn, hashes, "hash", id, MapLevel.SENTENCE, MapLevel.DOCUMENT, false);
+        DocumentMapper.executeNonOver(conn, ids, "id", id, MapLevel.DOCUMENT, MapLevel.SENTENCE, false);
+        DocumentMapper.executeNonOver(conn, hashes, "hash", new String[] { "url" }, MapLevel.SENTENCE, MapLevel.URL,
+                false);
+        DocumentMapper.executeNonOver(conn, new String[] { "http://a" }, "url", id, MapLevel.URL, MapLevel.DOCUMENT,
+                false);
+
+        String plans = assertNoTableScans();
+        for (String index : new String[] { "SoPIndex", "PoSIndex", "DoPIndex", "PoDIndex", "SOIndex", "DoSIndex",
+                "OccurrenceDocumentIndex", "OccurrenceUrlIndex" }) {
+            assertTrue(index + " not used:\n" + plans, plans.contains("COVERING INDEX " + index));
+        }
+    }
+
+    private interface Lookup {
+        void run() throws Exception;
+    }
+
+    /** Runs a lookup of a missing record, only its queries matter. */
+    private static void lookup(Lookup lookup) throws Exception {
+        try {
+            lookup.run();
+        } catch (RecordNotFoundException e) {
+            // the database is empty
+        }
+    }
+
+    /**
+     * Explains the recorded queries and fails on a scan of a table other than the staged values.
+     * @return - plans of all queries
+     */
+    private String assertNoTableScans() throws SQLException {
+        assertTrue("no queries have been recorded", !queries.isEmpty());
+        StringBuilder plans = new StringBuilder();
+        for (String sql : queries) {
+            String plan = explain(sql);
+            plans.append(sql).append('\n').append(plan);
+            for (String step : plan.split("\n")) {
+                String detail = step.trim();
+                if (detail.startsWith("SCAN ") && !detail.equals("SCAN temp.StagedValue") && !detail.equals("SCAN S")) {
+                    fail("Table scan " + detail + " in the plan of\n" + sql + "\n" + plan);
+                }
+            }
+        }
+        return plans.toString();
+    }
+
+    private String explain(String sql) throws SQLException {
+        StringBuilder plan = new StringBuilder();
+        try (PreparedStatement stmt = target.prepareStatement("EXPLAIN QUERY PLAN " + sql)) {
+            for (int i = 1; i <= stmt.getParameterMetaData().getParameterCount(); i++) {
+                stmt.setNull(i, Types.NULL);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    plan.append("    ").append(rs.getString(4)).append('\n');
+                }
+            }
+        }
+        return plan.toString();
+    }
+
+    /** Wraps the connection so the SELECT statements it prepares or executes are recorded. */
+    private Connection recording(Connection target) {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class },
+                (proxy, method, args) -> {
+                    if (method.getName().startsWith("prepare") && args != null && args[0] instanceof String) {
+                        record((String) args[0]);
+                    }
+                    Object result = invoke(method, target, args);
+                    if (result instanceof Statement && !(result instanceof PreparedStatement)) {
+                        Statement statement = (Statement) result;
+                        return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Statement.class },
+                                (p, m, a) -> {
+                                    if (m.getName().startsWith("execute") && a != null && a[0] instanceof String) {
+                                        record((String) a[0]);
+                                    }
+                                    return invoke(m, statement, a);
+                                });
+                    }
+                    return result;
+                });
+    }
+
+    private void record(String sql) {
+        if (sql.trim().toUpperCase().startsWith("SELECT")) {
+            queries.add(sql);
+        }
+    }
+
+    private static Object invoke(Method method, Object target, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.lingea.documentstorage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.lingea.documentstorage.database.DocumentRecord;
+import com.lingea.documentstorage.exception.RecordNotFoundException;
+import com.lingea.documentstorage.recording.ChecksumAlgorithm;
+import com.lingea.documentstorage.utils.StorageConfig;
+import com.lingea.documentstorage.utils.StorageLevel;
+
+public class DocumentStorageTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DocumentStorage storage;
+
+    @Before
+    public void open() throws Exception {
+        storage = new DocumentStorage(folder.getRoot().getPath() + "/");
+    }
+
+    @After
+    public void close() throws Exception {
+        storage.close();
+    }
+
+    @Test
+    public void malformedHashIsNotFound() throws Exception {
+        for (String hash : new String[] { "not a hash", "abc", "0g" }) {
+            assertNotFound(() -> storage.getDocumentRecord(hash));
+            for (StorageLevel level : StorageLevel.values()) {
+                assertNotFound(() -> storage.getRecord(level, hash));
+                assertNotFound(() -> storage.getBinaryRecord(level, hash));
+            }
+        }
+    }
+
+    @Test
+    public void malformedHashInBatchIsEmpty() throws Exception {
+        byte[] bytes = "<p>Some text.</p>".getBytes(StandardCharsets.UTF_8);
+        DocumentMeta meta = new DocumentMeta("indexer", "http://a", "", "text/html", 1, "en", 0);
+        List<List<String>> sentences = Collections.singletonList(Collections.singletonList("Some text."));
+        storage.ingest(Collections.singletonList(new IngestRequest(meta, bytes, new String[] { "Some text." },
+                sentences)));
+        String hash = storage.getChecksum(StorageLevel.DOCUMENT, bytes);
+
+        Map<String, Optional<DocumentRecord>> records = storage.getDocumentRecords(Arrays.asList("not a hash", hash));
+        assertEquals(Arrays.asList("not a hash", hash), Arrays.asList(records.keySet().toArray()));
+        assertFalse(records.get("not a hash").isPresent());
+        assertEquals(storage.getDocumentRecord(hash).getId(), records.get(hash).get().getId());
+    }
+
+    @Test
+    public void checksumAlgorithmMustNotChange() throws Exception {
+        String dir = folder.getRoot().getPath() + "/";
+        storage.close();
+        try {
+            storage = new DocumentStorage(dir, StorageConfig.defaults()
+                    .withChecksumAlgorithm(StorageLevel.SENTENCE, ChecksumAlgorithm.MURMUR3_128));
+            fail("Storage has been opened with another checksum algorithm");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        storage = new DocumentStorage(dir, StorageConfig.defaults()
+                .withChecksumAlgorithm(StorageLevel.SENTENCE, ChecksumAlgorithm.MD5));
+    }
+
+    @Test
+    public void checksumAlgorithmIsStoredOnCreation() throws Exception {
+        String dir = folder.newFolder().getPath() + "/";
+        StorageConfig config = StorageConfig.defaults()
+                .withChecksumAlgorithm(StorageLevel.PARAGRAPH, ChecksumAlgorithm.MURMUR3_128);
+        new DocumentStorage(dir, config).close();
+        try {
+            new DocumentStorage(dir, StorageConfig.defaults()).close();
+            fail("Storage has been opened with another checksum algorithm");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        new DocumentStorage(dir, config).close();
+    }
+
+    private static void assertNotFound(Lookup lookup) throws Exception {
+        try {
+            lookup.run();
+            fail("Record has been found");
+        } catch (RecordNotFoundException e) {
+            // expected
+        }
+    }
+
+    private interface Lookup {
+        void run() throws Exception;
+    }
+}
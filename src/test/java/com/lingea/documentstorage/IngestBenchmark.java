@@ -0,0 +1,121 @@
+package com.lingea.documentstorage;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import com.lingea.documentstorage.utils.StorageConfig;
+import com.lingea.documentstorage.utils.StorageLevel;
+
+/**
+ * Timing harness comparing the storage profiles: the documents are ingested with their paragraphs and sentences
+ * in groups, then looked up by hash from several threads, record and binary. Every profile gets a new storage.
+ * It is not run by the tests, run it after {@code mvn test-compile} with the classpath of the project, e.g.
+ * {@code java -cp target/classes:target/test-classes:<sqlite-jdbc jar>:<lz4 jar> com.lingea.documentstorage.IngestBenchmark [documents]}.
+ */
+public class IngestBenchmark {
+    private static final int DEFAULT_DOCUMENTS = 10000;
+    private static final int GROUP_SIZE = 100;
+    private static final int PARAGRAPHS = 8;
+    private static final int SENTENCES = 4;
+    private static final int LOOKUP_THREADS = 8;
+    private static final int LOOKUPS = 50000;
+
+    public static void main(String[] args) throws Exception {
+        int documents = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_DOCUMENTS;
+        for (StorageConfig.Profile profile : StorageConfig.Profile.values()) {
+            Path dir = Files.createTempDirectory("ingest-benchmark");
+            try {
+                run(profile, dir.toString() + File.separator, documents);
+            } finally {
+                try (Stream<Path> files = Files.walk(dir)) {
+                    files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+                }
+            }
+        }
+    }
+
+    private static void run(StorageConfig.Profile profile, String dir, int documents) throws Exception {
+        DocumentStorage storage = new DocumentStorage(dir, StorageConfig.forProfile(profile));
+        try {
+            Random random = new Random(1);
+            List<String> hashes = new ArrayList<>(documents);
+            long start = System.nanoTime();
+            for (int from = 0; from < documents; from += GROUP_SIZE) {
+                List<IngestRequest> group = new ArrayList<>(GROUP_SIZE);
+                for (int i = from; i < Math.min(documents, from + GROUP_SIZE); i++) {
+                    group.add(document(random, i));
+                    hashes.add(storage.getChecksum(StorageLevel.DOCUMENT, group.get(group.size() - 1).bytes));
+                }
+                storage.ingest(group);
+            }
+            long ingestNanos = System.nanoTime() - start;
+
+            ExecutorService executor = Executors.newFixedThreadPool(LOOKUP_THREADS);
+            List<Future<Long>> results = new ArrayList<>();
+            start = System.nanoTime();
+            for (int t = 0; t < LOOKUP_THREADS; t++) {
+                long seed = t;
+                results.add(executor.submit(() -> {
+                    Random lookups = new Random(seed);
+                    long bytes = 0;
+                    for (int i = 0; i < LOOKUPS / LOOKUP_THREADS; i++) {
+                        String hash = hashes.get(lookups.nextInt(hashes.size()));
+                        bytes += storage.getDocumentRecord(hash).getId();
+                        bytes += storage.getBinaryRecord(StorageLevel.DOCUMENT, hash).length;
+                    }
+                    return bytes;
+                }));
+            }
+            for (Future<Long> result : results) {
+                result.get();
+            }
+            long lookupNanos = System.nanoTime() - start;
+            executor.shutdown();
+
+            System.out.printf("%-12s ingest %8.0f documents/s  lookup %8.0f documents/s%n", profile,
+                    documents * 1e9 / ingestNanos, LOOKUPS * 1e9 / lookupNanos);
+        } finally {
+            storage.close();
+        }
+    }
+
+    /** Document of sentences of random words, some sentences repeat across the documents as boilerplate does. */
+    private static IngestRequest document(Random random, int index) {
+        String[] paragraphs = new String[PARAGRAPHS];
+        List<List<String>> sentences = new ArrayList<>(PARAGRAPHS);
+        StringBuilder html = new StringBuilder("<html><body>");
+        for (int p = 0; p < PARAGRAPHS; p++) {
+            List<String> paragraphSentences = new ArrayList<>(SENTENCES);
+            for (int s = 0; s < SENTENCES; s++) {
+                paragraphSentences.add(random.nextInt(4) == 0 ? "Shared sentence " + random.nextInt(100) + "."
+                        : sentence(random));
+            }
+            paragraphs[p] = String.join(" ", paragraphSentences);
+            sentences.add(paragraphSentences);
+            html.append("<p>").append(paragraphs[p]).append("</p>");
+        }
+        html.append("</body></html>");
+        DocumentMeta meta = new DocumentMeta("benchmark", "http://example.com/" + index, "", "text/html",
+                System.currentTimeMillis(), "en", 0);
+        return new IngestRequest(meta, html.toString().getBytes(StandardCharsets.UTF_8), paragraphs, sentences);
+    }
+
+    private static String sentence(Random random) {
+        char[] letters = new char[40 + random.nextInt(80)];
+        for (int i = 0; i < letters.length; i++) {
+            letters[i] = random.nextInt(6) == 0 ? ' ' : (char) ('a' + random.nextInt(26));
+        }
+        return new String(letters) + ".";
+    }
+}
@@ -0,0 +1,76 @@
+package com.lingea.documentstorage.database;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class UrlDictionaryTest {
+    private static final int URLS = 20000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Connection conn;
+
+    @Before
+    public void open() throws Exception {
+        conn = DriverManager.getConnection("jdbc:sqlite:" + folder.getRoot().getPath() + "/test.db");
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE Url (id INTEGER PRIMARY KEY, url TEXT UNIQUE)");
+        }
+    }
+
+    @After
+    public void close() throws Exception {
+        conn.close();
+    }
+
+    @Test
+    public void mergedUrlsAreFound() throws Exception {
+        String path = folder.getRoot().getPath() + "/urls.dat";
+        UrlDictionary dictionary = UrlDictionary.open(path, conn);
+        conn.setAutoCommit(false);
+        try (PreparedStatement insert = conn.prepareStatement("INSERT INTO Url (id, url) VALUES (?, ?)")) {
+            for (int i = 1; i <= URLS; i++) {
+                insert.setInt(1, i);
+                insert.setString(2, url(i));
+                insert.executeUpdate();
+            }
+        }
+        conn.commit();
+        // the urls are put once committed, merging the recent ones into the block several times
+        for (int i = 1; i <= URLS; i++) {
+            dictionary.put(url(i), i);
+        }
+        assertFound(dictionary);
+        dictionary.close();
+
+        dictionary = UrlDictionary.open(path, conn);
+        assertFound(dictionary);
+        dictionary.close();
+    }
+
+    private static void assertFound(UrlDictionary dictionary) {
+        assertEquals(URLS, dictionary.size());
+        for (int i = 1; i <= URLS; i++) {
+            assertEquals(i, dictionary.getId(url(i)));
+            // a prefix or an extension of a url is another url
+            assertEquals(0, dictionary.getId(url(i).substring(0, url(i).length() - 1)));
+            assertEquals(0, dictionary.getId(url(i) + "/"));
+        }
+        assertEquals(0, dictionary.getId(""));
+    }
+
+    private static String url(int i) {
+        return "http://example.com/" + (i % 7) + "/page/" + Integer.toString(i, 36) + "/x";
+    }
+}
@@ -0,0 +1,87 @@
+package com.lingea.documentstorage.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StorageForceTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> calls = new ArrayList<>();
+
+    @Test
+    public void recordsAreForcedBeforeTheirIndexes() throws IOException {
+        Storage storage = open("document");
+        Storage chunks = open("chunk");
+        storage.setChunkStorage(chunks);
+
+        chunks.saveRecord(bytes("chunk"), "text/plain", null, 1);
+        storage.save(bytes("document"), "meta", "indexer", "text/plain", 1, "http://a", null, 1);
+        storage.force();
+
+        assertBefore("document data", "document index");
+        assertBefore("document data", "document meta");
+        assertBefore("chunk data", "chunk index");
+        assertArrayEquals(bytes("document"), storage.read(1));
+        storage.close();
+        chunks.close();
+    }
+
+    @Test
+    public void forceWithoutWritesDoesNothing() throws IOException {
+        StorageController controller = new StorageController(folder.newFile().getPath());
+        controller.force();
+        IndexEntry entry = controller.write(bytes("record"));
+        controller.force();
+        controller.force();
+        assertArrayEquals(bytes("record"), controller.read(entry));
+        controller.close();
+    }
+
+    private Storage open(String name) throws IOException {
+        String path = folder.getRoot().getPath() + "/" + name;
+        StorageController data = new StorageController(path + ".data") {
+            @Override
+            public void force() throws IOException {
+                calls.add(name + " data");
+                super.force();
+            }
+        };
+        IndexController index = new MappedIndexController(path + ".idx") {
+            @Override
+            public void force() {
+                calls.add(name + " index");
+                super.force();
+            }
+        };
+        MetaController meta = new MetaController(path + ".meta") {
+            @Override
+            public void force() throws IOException {
+                calls.add(name + " meta");
+                super.force();
+            }
+        };
+        return new Storage(path + ".data", path + ".idx", path + ".meta", data, index, meta);
+    }
+
+    private void assertBefore(String first, String second) {
+        assertTrue(first + " has not been forced: " + calls, calls.contains(first));
+        assertTrue(second + " has not been forced: " + calls, calls.contains(second));
+        assertTrue(calls.toString(), calls.indexOf(first) < calls.indexOf(second));
+        assertEquals(calls.toString(), calls.indexOf(first), calls.lastIndexOf(first));
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
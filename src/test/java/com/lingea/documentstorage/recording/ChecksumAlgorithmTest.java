@@ -0,0 +1,86 @@
+package com.lingea.documentstorage.recording;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ChecksumAlgorithmTest {
+    /** Reference values of the x64 128-bit MurmurHash3 with seed 0, as printed by Guava's murmur3_128. */
+    @Test
+    public void murmur3MatchesKnownVectors() {
+        assertEquals("029bbd41b3a7d8cb191dae486a901e5b", ChecksumAlgorithm.MURMUR3_128.checksum(utf8("hello")));
+        assertEquals("6c1b07bc7bbc4be347939ac4a93c437a",
+                ChecksumAlgorithm.MURMUR3_128.checksum(utf8("The quick brown fox jumps over the lazy dog")));
+        assertEquals("00000000000000000000000000000000", ChecksumAlgorithm.MURMUR3_128.checksum(new byte[0]));
+    }
+
+    @Test
+    public void knownVectorsOfMessageDigests() {
+        assertEquals("5d41402abc4b2a76b9719d911017c592", ChecksumAlgorithm.MD5.checksum(utf8("hello")));
+        assertEquals("2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824",
+                ChecksumAlgorithm.SHA_256.checksum(utf8("hello")));
+    }
+
+    /** The text, the buffer and the incremental variants must give the digest of the UTF-8 bytes. */
+    @Test
+    public void variantsAgreeWithBytes() {
+        String text = "\u017elu\u0165ou\u010dk\u00fd k\u016f\u0148 \uD83D\uDC0E, a tail longer than one block of 16 bytes";
+        byte[] bytes = utf8(text);
+        for (ChecksumAlgorithm algorithm : ChecksumAlgorithm.values()) {
+            String expected = algorithm.checksum(bytes);
+            assertEquals(algorithm.name(), expected, algorithm.checksum(text));
+            // other char sequences are encoded char by char
+            assertEquals(algorithm.name(), expected, algorithm.checksum(new StringBuilder(text)));
+            assertEquals(algorithm.name(), expected, algorithm.checksum(ByteBuffer.wrap(bytes)));
+
+            for (int split = 0; split <= bytes.length; split += 7) {
+                Hasher hasher = algorithm.newHasher();
+                hasher.update(bytes, 0, split);
+                hasher.update(ByteBuffer.wrap(bytes, split, bytes.length - split));
+                assertEquals(algorithm.name() + " split at " + split, expected, Digest.toHex(hasher.digest()));
+            }
+        }
+    }
+
+    /** The digests written into a batch array, in parallel or not, must be the ones of the single texts. */
+    @Test
+    public void digestArrayAgreesWithChecksums() {
+        Random random = new Random(1);
+        List<CharSequence> texts = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            char[] chars = new char[random.nextInt(4) == 0 ? 0 : random.nextInt(i % 100 == 0 ? 5000 : 200)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = (char) ('a' + random.nextInt(26));
+            }
+            texts.add(i % 2 == 0 ? new String(chars) : new StringBuilder().append(chars));
+        }
+        for (ChecksumAlgorithm algorithm : ChecksumAlgorithm.values()) {
+            DigestArray sequential = DigestArray.hash(algorithm, texts, false);
+            DigestArray parallel = DigestArray.hash(algorithm, texts, true);
+            for (int i = 0; i < texts.size(); i++) {
+                String expected = algorithm.checksum(texts.get(i));
+                assertEquals(algorithm.name() + " text " + i, expected, sequential.getHex(i));
+                assertEquals(algorithm.name() + " text " + i, expected, parallel.getHex(i));
+            }
+        }
+    }
+
+    @Test
+    public void unpairedSurrogateIsHashedAsInGetBytes() {
+        String text = "a\uD800b";
+        for (ChecksumAlgorithm algorithm : ChecksumAlgorithm.values()) {
+            assertEquals(algorithm.name(), algorithm.checksum(utf8(text)), algorithm.checksum(text));
+            assertEquals(algorithm.name(), algorithm.checksum(utf8(text)), algorithm.checksum(new StringBuilder(text)));
+        }
+    }
+
+    private static byte[] utf8(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,60 @@
+package com.lingea.documentstorage.recording;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Timing harness of the checksum algorithms on records of the sizes of a sentence, a paragraph and a document.
+ * It is not run by the tests, run it after {@code mvn test-compile} with
+ * {@code java -cp target/classes:target/test-classes com.lingea.documentstorage.recording.ChecksumBenchmark}.
+ */
+public class ChecksumBenchmark {
+    private static final int[] SIZES = { 80, 600, 64 * 1024 };
+    private static final long BYTES_PER_ROUND = 64L * 1024 * 1024;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        Random random = new Random(1);
+        long sink = 0;
+        for (int size : SIZES) {
+            String text = randomText(random, size);
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            int iterations = (int) Math.max(1, BYTES_PER_ROUND / bytes.length);
+            for (ChecksumAlgorithm algorithm : ChecksumAlgorithm.values()) {
+                long bytesNanos = Long.MAX_VALUE;
+                long textNanos = Long.MAX_VALUE;
+                for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+                    long start = System.nanoTime();
+                    for (int i = 0; i < iterations; i++) {
+                        sink += algorithm.digest(bytes)[0];
+                    }
+                    long middle = System.nanoTime();
+                    for (int i = 0; i < iterations; i++) {
+                        sink += algorithm.digest(text)[0];
+                    }
+                    long end = System.nanoTime();
+                    if (round >= WARMUP_ROUNDS) {
+                        bytesNanos = Math.min(bytesNanos, middle - start);
+                        textNanos = Math.min(textNanos, end - middle);
+                    }
+                }
+                System.out.printf("%-12s %6d B  bytes %9.1f ns/op %7.0f MB/s  text %9.1f ns/op%n", algorithm, bytes.length,
+                        (double) bytesNanos / iterations, 1e3 * bytes.length * iterations / bytesNanos,
+                        (double) textNanos / iterations);
+            }
+        }
+        // keeps the digests from being optimized away
+        System.out.println(sink == 42 ? "" : "done");
+    }
+
+    /** Text of words of latin letters with some accented ones, like the sentences of the storage. */
+    private static String randomText(Random random, int length) {
+        String letters = "abcdefghijklmnopqrstuvwxyz\u00e1\u010d\u00e9\u011b\u00ed\u0159\u0161\u00fd\u017e";
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            text.append(random.nextInt(6) == 0 ? ' ' : letters.charAt(random.nextInt(letters.length())));
+        }
+        return text.toString();
+    }
+}